@@ -0,0 +1,77 @@
+package ca.concordia;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.datastructures.FEntry;
+
+// Compares raw vs. compressed files: CPU time per WRITE/READ and blocks used on disk
+public class CompressionBenchmark {
+
+    private static final int ROUNDS = 2000;
+    private static final int PAYLOAD = 300; // 3 raw blocks, so both files fit on the 9 data blocks
+
+    public static void main(String[] args) throws Exception {
+        File image = File.createTempFile("compression-bench", ".dat");
+        image.deleteOnExit();
+        FileSystemManager fsManager = new FileSystemManager(image.getPath(), 10 * 128);
+        fsManager.createFile("raw");
+        fsManager.createFile("packed", true);
+
+        // Same kind of payloads as FileClientLoadTest, plus text-like and random data
+        StringBuilder clients = new StringBuilder();
+        for (int i = 0; clients.length() < PAYLOAD; i++) {
+            clients.append("hello-from-client-").append(i).append(' ');
+        }
+        StringBuilder text = new StringBuilder();
+        String[] words = {"file", "server", "block", "client", "write", "read", "list", "delete"};
+        Random random = new Random(42);
+        while (text.length() < PAYLOAD) {
+            text.append(words[random.nextInt(words.length)]).append(' ');
+        }
+        byte[] noise = new byte[PAYLOAD];
+        random.nextBytes(noise);
+
+        System.out.printf("%-10s %-7s %10s %10s %8s %12s %12s%n",
+                "payload", "file", "logical", "stored", "blocks", "write us/op", "read us/op");
+        run(fsManager, "clients", clients.substring(0, PAYLOAD).getBytes());
+        run(fsManager, "text", text.substring(0, PAYLOAD).getBytes());
+        run(fsManager, "random", noise);
+        fsManager.close();
+    }
+
+    private static void run(FileSystemManager fsManager, String label, byte[] payload) throws Exception {
+        PrintStream out = System.out;
+        for (String file : new String[] {"raw", "packed"}) {
+            // writeFile logs every call: silence it while timing
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+            // Warm up, then time
+            for (int i = 0; i < ROUNDS / 10; i++) {
+                fsManager.writeFile(file, payload);
+                fsManager.readFile(file);
+            }
+            long writeNanos = 0;
+            long readNanos = 0;
+            for (int i = 0; i < ROUNDS; i++) {
+                long start = System.nanoTime();
+                fsManager.writeFile(file, payload);
+                writeNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                fsManager.readFile(file);
+                readNanos += System.nanoTime() - start;
+            }
+            System.setOut(out);
+
+            FEntry entry = fsManager.checkFile(file);
+            int stored = Short.toUnsignedInt(entry.getStoredSize());
+            System.out.printf("%-10s %-7s %10d %10d %8d %12.1f %12.1f%n",
+                    label, file, payload.length, stored, (stored + 127) / 128,
+                    writeNanos / 1000.0 / ROUNDS, readNanos / 1000.0 / ROUNDS);
+        }
+    }
+}
@@ -1,12 +1,48 @@
 package ca.concordia;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import ca.concordia.server.FileServer;
 
 public class Main {
     public static void main(String[] args) {
         System.out.printf("Hello and welcome!");
 
-        FileServer server = new FileServer(12345, "filesystem.dat", 10 * 128);
+        // -Dfilesystem.dedup=true shares identical blocks between files
+        // -Dfilesystem.shards=N splits files over N disk images
+        // -Dfilesystem.fsck.repair=true lets the background check fix problems, not just report them
+        // -Dfilesystem.images=/d1/a.dat,/d2/b.dat names every shard's image instead (one shard each, in order)
+        // -Dserver.port / -Dfilesystem.name let a second instance run on the same machine
+        int port = Integer.getInteger("server.port", 12345);
+        boolean deduplicate = Boolean.getBoolean("filesystem.dedup");
+        boolean onlineRepair = Boolean.getBoolean("filesystem.fsck.repair");
+        String images = System.getProperty("filesystem.images");
+        FileServer server;
+        if (images != null) {
+            List<String> imagePaths = new ArrayList<>();
+            for (String path : images.split(",")) {
+                if (!path.isBlank()) {
+                    imagePaths.add(path.trim());
+                }
+            }
+            server = new FileServer(port, imagePaths, 10 * 128, deduplicate, onlineRepair);
+        } else {
+            server = new FileServer(port, System.getProperty("filesystem.name", "filesystem.dat"), 10 * 128,
+                    deduplicate, Integer.getInteger("filesystem.shards", 1), onlineRepair);
+        }
+
+        // -Dreplication.port=P streams changes to followers on port P
+        // -Dreplication.leader=host:P makes this server a read-only replica of that leader
+        Integer replicationPort = Integer.getInteger("replication.port");
+        if (replicationPort != null) {
+            server.publishTo(replicationPort);
+        }
+        String leader = System.getProperty("replication.leader");
+        if (leader != null) {
+            int colon = leader.lastIndexOf(':');
+            server.followLeader(leader.substring(0, colon), Integer.parseInt(leader.substring(colon + 1)));
+        }
         // Start the file server
         server.start();
     }
@@ -0,0 +1,60 @@
+package ca.concordia.filesystem;
+
+/*
+    Background defragmentation.
+    Walks the inode table one file at a time and asks FileSystemManager to
+    move fragmented chains into a contiguous run of free blocks. Each step
+    only runs if the write lock is free right now, and steps are spaced out
+    so foreground requests are not slowed down.
+*/
+public class BlockCompactor implements Runnable {
+
+    // Outcome of compacting one file
+    enum Step { MOVED, SKIPPED, BUSY }
+
+    private final FileSystemManager fsManager;
+    private final long stepDelayMillis;  // pause between two files
+    private final long idleDelayMillis;  // pause after a pass with nothing to do
+    private volatile boolean running = true;
+
+    public BlockCompactor(FileSystemManager fsManager, long stepDelayMillis, long idleDelayMillis) {
+        this.fsManager = fsManager;
+        this.stepDelayMillis = stepDelayMillis;
+        this.idleDelayMillis = idleDelayMillis;
+    }
+
+    public Thread start() {
+        Thread thread = new Thread(this, "compactor");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                int moved = 0;
+                for (int slot = 0; slot < fsManager.fileSlots() && running; slot++) {
+                    Step step = fsManager.compactFile(slot);
+                    if (step == Step.MOVED) {
+                        moved++;
+                    }
+                    // Back off harder when a foreground writer had the lock
+                    Thread.sleep(step == Step.BUSY ? stepDelayMillis * 4 : stepDelayMillis);
+                }
+                if (moved == 0) {
+                    Thread.sleep(idleDelayMillis);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("Compactor stopped: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package ca.concordia.filesystem;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/*
+    Dedup index: 64-bit block hash -> block number.
+    Open addressing with linear probing over two primitive arrays (no boxing),
+    backward-shift deletion so no tombstones pile up.
+    A hash only names a candidate: callers compare the block bytes before sharing.
+*/
+final class BlockHashIndex {
+
+    private static final int EMPTY = -1;
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+    private static final long PRIME = 0xC2B2AE3D27D4EB4FL;
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final long[] keys;
+    private final int[] values;
+    private final int mask;
+
+    // One entry per block at most; kept at most half full
+    BlockHashIndex(int maxEntries) {
+        int capacity = Integer.highestOneBit(Math.max(2, maxEntries) * 2 - 1) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, EMPTY);
+        mask = capacity - 1;
+    }
+
+    // Block stored under this hash, or -1
+    int get(long hash) {
+        for (int i = slot(hash); values[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == hash) {
+                return values[i];
+            }
+        }
+        return EMPTY;
+    }
+
+    // false if another block already holds this hash
+    boolean putIfAbsent(long hash, int block) {
+        int i = slot(hash);
+        for (; values[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == hash) {
+                return false;
+            }
+        }
+        keys[i] = hash;
+        values[i] = block;
+        return true;
+    }
+
+    // Removes the entry only if it belongs to this block
+    void remove(long hash, int block) {
+        int i = slot(hash);
+        for (; values[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == hash) {
+                break;
+            }
+        }
+        if (values[i] != block) {
+            return;
+        }
+
+        // Shift later entries of the probe run back into the hole
+        int hole = i;
+        for (int j = (i + 1) & mask; values[j] != EMPTY; j = (j + 1) & mask) {
+            int home = slot(keys[j]);
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                hole = j;
+            }
+        }
+        values[hole] = EMPTY;
+    }
+
+    void clear() {
+        Arrays.fill(values, EMPTY);
+    }
+
+    private int slot(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    // Hash of a block's data and its next pointer (a block is only shared with its whole tail)
+    static long hash(byte[] data, int next) {
+        long h = SEED ^ (Math.max(next, -1) * PRIME);
+        int i = 0;
+        for (; i + 8 <= data.length; i += 8) {
+            h = Long.rotateLeft(h ^ ((long) LONGS.get(data, i) * PRIME), 31) * SEED;
+        }
+        for (; i < data.length; i++) {
+            h = Long.rotateLeft(h ^ ((data[i] & 0xFFL) * PRIME), 11) * SEED;
+        }
+        // Final avalanche (MurmurHash3 fmix64)
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,267 @@
+package ca.concordia.filesystem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/*
+    Consistency checker (fsck) for the disk image.
+    Verifies every FEntry chain (range, cycles, length vs. size), cross-linked
+    blocks, orphaned FNodes, the free bitmap and directory parent links, and
+    computes repaired tables.
+    On an image that was ever deduplicated, files may legitimately share
+    the tail of a chain (recorded in the image, not taken from the flag).
+    Works on an immutable MetadataSnapshot, so the scan never blocks the server.
+*/
+public class FileSystemChecker {
+
+    // Result of one scan: problems found + the tables after repair
+    public static class Report {
+        private final List<String> problems;
+        final short[] sizes;
+        final short[] firstBlocks;
+        final int[] nextBlocks;
+        final boolean[] usedBlocks;
+        final int[] parents;
+
+        Report(List<String> problems, short[] sizes, short[] firstBlocks, int[] nextBlocks, boolean[] usedBlocks,
+               int[] parents) {
+            this.problems = Collections.unmodifiableList(problems);
+            this.sizes = sizes;
+            this.firstBlocks = firstBlocks;
+            this.nextBlocks = nextBlocks;
+            this.usedBlocks = usedBlocks;
+            this.parents = parents;
+        }
+
+        public List<String> getProblems() {
+            return problems;
+        }
+
+        public boolean isClean() {
+            return problems.isEmpty();
+        }
+    }
+
+    // Chain of one inode, cut at the first bad link
+    private static class ChainResult {
+        final int slot;
+        final int[] chain;
+        final String problem; // null if the chain is fine
+
+        ChainResult(int slot, int[] chain, String problem) {
+            this.slot = slot;
+            this.chain = chain;
+            this.problem = problem;
+        }
+    }
+
+    static Report check(MetadataSnapshot snap, boolean allowSharedBlocks) {
+        int slotCount = snap.slotCount();
+        int blockCount = snap.blockCount();
+
+        // Walk every inode's chain in parallel
+        List<ChainResult> chains = IntStream.range(0, slotCount)
+                .parallel()
+                .filter(slot -> snap.name(slot) != null)
+                .mapToObj(slot -> walkChain(snap, slot))
+                .toList();
+
+        List<String> problems = new ArrayList<>();
+        short[] sizes = snap.copySizes();
+        short[] firstBlocks = snap.copyFirstBlocks();
+        int[] nextBlocks = snap.copyNextBlocks();
+        boolean[] usedBlocks = new boolean[blockCount];
+        usedBlocks[0] = true; // metadata block
+        int[] owner = new int[blockCount];
+        Arrays.fill(owner, -1);
+
+        // Lowest slot keeps a cross-linked block, later files are cut before it
+        for (ChainResult result : chains) {
+            int slot = result.slot;
+            String name = snap.name(slot);
+            int[] chain = result.chain;
+            int kept = chain.length;
+            if (result.problem != null) {
+                problems.add("File '" + name + "': " + result.problem);
+            }
+            int needed = blocksNeeded(sizes[slot]);
+            if (kept > needed) {
+                problems.add("File '" + name + "' has more than the " + needed + " block(s) it needs.");
+                kept = needed;
+            }
+            for (int i = 0; i < kept; i++) {
+                if (owner[chain[i]] >= 0) {
+                    if (allowSharedBlocks) {
+                        break; // shared tail, already claimed by the other file
+                    }
+                    problems.add("File '" + name + "' is cross-linked with '" + snap.name(owner[chain[i]])
+                            + "' at block " + chain[i] + ".");
+                    kept = i;
+                    break;
+                }
+            }
+
+            // Claim the kept blocks and terminate the repaired chain
+            for (int i = 0; i < kept; i++) {
+                owner[chain[i]] = slot;
+                usedBlocks[chain[i]] = true;
+            }
+            if (kept == 0) {
+                firstBlocks[slot] = -1;
+            } else if (kept < chain.length || result.problem != null) {
+                nextBlocks[chain[kept - 1]] = -1;
+            }
+
+            int size = Short.toUnsignedInt(sizes[slot]);
+            if (size > kept * FileSystemManager.BLOCK_SIZE) {
+                int repaired = kept * FileSystemManager.BLOCK_SIZE;
+                problems.add("File '" + name + "' has size " + size + " but only " + repaired
+                        + " bytes of blocks.");
+                sizes[slot] = (short) repaired;
+            }
+        }
+
+        // Nodes nobody reaches, and bitmap entries that disagree with the chains
+        for (int block = 1; block < blockCount; block++) {
+            if (!usedBlocks[block] && nextBlocks[block] != FileSystemManager.NO_NODE) {
+                problems.add("Block " + block + " has an orphaned FNode.");
+                nextBlocks[block] = FileSystemManager.NO_NODE;
+            }
+            if (usedBlocks[block] != snap.isBlockUsed(block)) {
+                problems.add("Block " + block + " is marked " + (snap.isBlockUsed(block) ? "used" : "free")
+                        + " in the bitmap but is " + (usedBlocks[block] ? "used." : "free."));
+            }
+        }
+
+        // Every entry must hang off an existing directory, without loops; otherwise move it to the root
+        int[] parents = snap.copyParents();
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (snap.name(slot) == null || parents[slot] == MetadataSnapshot.ROOT) {
+                continue;
+            }
+            int parent = parents[slot];
+            if (parent < 0 || parent >= slotCount || snap.name(parent) == null || !snap.isDirectory(parent)) {
+                problems.add("Entry '" + snap.name(slot) + "' has no parent directory, moved to the root.");
+                parents[slot] = MetadataSnapshot.ROOT;
+                continue;
+            }
+            int current = parent;
+            for (int depth = 0; current != MetadataSnapshot.ROOT; depth++) {
+                if (depth > slotCount || current < 0 || current >= slotCount) {
+                    problems.add("Entry '" + snap.name(slot) + "' is inside a directory loop, moved to the root.");
+                    parents[slot] = MetadataSnapshot.ROOT;
+                    break;
+                }
+                current = parents[current];
+            }
+        }
+
+        return new Report(problems, sizes, firstBlocks, nextBlocks, usedBlocks, parents);
+    }
+
+    // Blocks a file of this size occupies (an empty file still has one)
+    private static int blocksNeeded(short size) {
+        return Math.max(1, (Short.toUnsignedInt(size) + FileSystemManager.BLOCK_SIZE - 1)
+                / FileSystemManager.BLOCK_SIZE);
+    }
+
+    // Walks at most one block past what the size needs, so the cost follows the file, not the disk
+    private static ChainResult walkChain(MetadataSnapshot snap, int slot) {
+        int limit = blocksNeeded(snap.size(slot)) + 1;
+        Set<Integer> visited = new HashSet<>();
+        int[] chain = new int[limit];
+        int count = 0;
+
+        int current = snap.firstBlock(slot);
+        if (current < 0) {
+            return new ChainResult(slot, new int[0], null);
+        }
+        String problem = null;
+        while (true) {
+            if (current <= 0 || current >= snap.blockCount()) {
+                problem = "link to invalid block " + current + ".";
+                break;
+            }
+            if (!visited.add(current)) {
+                problem = "chain has a cycle at block " + current + ".";
+                break;
+            }
+            chain[count++] = current;
+            if (count == limit) {
+                break; // already too long, check() cuts it
+            }
+
+            int following = snap.nextBlock(current);
+            if (following == -1 || following == FileSystemManager.NO_NODE) {
+                break;
+            }
+            current = following;
+        }
+        return new ChainResult(slot, Arrays.copyOf(chain, count), problem);
+    }
+
+    // Background online pass; repairs (if asked) under the manager's write lock
+    public static ScheduledExecutorService scheduleOnline(FileSystemManager fsManager, long periodMinutes, boolean repair) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "fsck");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                Report report = fsManager.checkConsistency(repair);
+                for (String problem : report.getProblems()) {
+                    System.out.println("fsck: " + problem);
+                }
+            } catch (Exception e) {
+                System.err.println("fsck failed: " + e.getMessage());
+            }
+        }, periodMinutes, periodMinutes, TimeUnit.MINUTES);
+        return scheduler;
+    }
+
+    // Offline: FileSystemChecker <image> [--repair]
+    // Whether shared tails are allowed comes from the image itself
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: FileSystemChecker <disk image> [--repair]");
+            return;
+        }
+        List<String> options = Arrays.asList(args).subList(1, args.length);
+        boolean repair = options.contains("--repair");
+
+        // Scan the image as stored, without writing to it
+        FileSystemManager reader = FileSystemManager.openReadOnly(args[0]);
+        Report report;
+        try {
+            report = reader.checkConsistency(false);
+        } finally {
+            reader.close();
+        }
+        if (report.isClean()) {
+            System.out.println("No problems found.");
+        }
+        for (String problem : report.getProblems()) {
+            System.out.println(problem);
+        }
+
+        // Only --repair may touch the image
+        if (repair && !report.isClean()) {
+            FileSystemManager fsManager = new FileSystemManager(args[0], 10 * 128, false);
+            try {
+                fsManager.checkConsistency(true);
+            } finally {
+                fsManager.close();
+            }
+            System.out.println("Repaired " + report.getProblems().size() + " problem(s).");
+        }
+    }
+}
@@ -1,18 +1,28 @@
 package ca.concordia.filesystem;
 
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 import ca.concordia.filesystem.datastructures.FEntry;
-import ca.concordia.filesystem.datastructures.FNode;
 
-public class FileSystemManager {
+public class FileSystemManager implements FileSystemOperations {
 
     private final int MAXFILES = 5;
     private final int MAXBLOCKS = 10;
-    private static FileSystemManager instance = null;
+    private static final java.util.Set<String> openImages = java.util.concurrent.ConcurrentHashMap.newKeySet();
+    private final String imagePath;
     private final RandomAccessFile disk;
+    private final FileChannel channel; // positional reads, safe without the lock
+    private final boolean readOnly;    // opened for inspection only
     private final ReentrantLock globalLock = new ReentrantLock();
 
     // Readers–writers sync (replaces globallock)
@@ -20,209 +30,508 @@ public class FileSystemManager {
     private final Semaphore wrt = new Semaphore(1);
     private int readCount = 0;
 
-    private static final int BLOCK_SIZE = 128; // Example block size
+    // Lock-free readers: last committed metadata + reclaim sequence. Writers put new data in free
+    // blocks only, so a published snapshot stays readable until blocks it may use are freed;
+    // the sequence is odd while that happens (release, compaction, repair)
+    private volatile MetadataSnapshot snapshot;
+    private volatile long reclaimSeq = 0;
+    // Slots and blocks changed since the last publish (the next snapshot only copies those)
+    private final BitSet dirtySlots = new BitSet();
+    private final BitSet dirtyBlocks = new BitSet();
+    private boolean fullSnapshot = true; // tables replaced wholesale (load, repair)
+    private static final int OPTIMISTIC_READ_ATTEMPTS = 3;
+    private static final int RECLAIM_SPINS = 64;   // then park, RECLAIM_PARKS times at most
+    private static final int RECLAIM_PARKS = 1000;
+    private static final long RECLAIM_PARK_NANOS = 10_000;
+
+    static final int BLOCK_SIZE = 128; // Example block size
+    private static final int FILENAME_BYTES = 11;
+
+    // Extension region, stored right after the last data block, as many blocks as the geometry needs
+    private final long EXT_OFFSET = (long) MAXBLOCKS * BLOCK_SIZE;
+    private static final int EXT_MAGIC = 0x46535832;        // "FSX2"
+    private static final int EXT_MAGIC_LEGACY = 0x46535831; // "FSX1": single fixed block, no header
+    private static final int EXT_VERSION = 3;         // 3: parents are shorts (2: bytes)
+    private static final int EXT_HEADER_BYTES = 24;
+    private static final int IMAGE_SHARED_BLOCKS = 1; // image flags bit: files may share chain tails
+    private static final int INODES_PER_SCAN_TASK = 64;
+
+    // Inode table as parallel arrays (one slot per file, FEntry is only a view)
+    private String[] entryNames;       // null = empty slot
+    private short[] entrySizes;        // bytes stored on disk (physical)
+    private short[] entryFirstBlocks;
+    private short[] entryLogicalSizes; // bytes the client sees (differs when compressed)
+    private byte[] entryFlags;
+    private int[] entryParents;        // MetadataSnapshot.ROOT or slot of the parent directory
+    private long[] entryModified;      // last create/write, epoch millis
+
+    // entryFlags bits
+    static final int FLAG_COMPRESS = 1;         // file is in compression mode
+    static final int FLAG_STORED_COMPRESSED = 2; // current contents are LZ4 data
+    static final int FLAG_DIRECTORY = 4;        // entry is a directory (no blocks)
+
+    // Block chain as a flat next-pointer table (replaces FNode[])
+    private int[] nextBlock;
+    static final int NO_NODE = -2;     // block has no FNode; -1 = end of chain
 
-    private FEntry[] inodeTable; // Array of inodes
-    private FNode[] fnodes; // Array of fnodes
     private boolean[] freeBlockList; // Bitmap for free blocks
+    private int[] blockRefs;         // files/blocks pointing at each block (> 1 = shared)
+
+    // Optional block-level dedup: block hash -> block, and back
+    private final boolean deduplicate;
+    private boolean sharedBlocks; // a write ever shared blocks between chains (persisted, never cleared)
+
+    // Place in a ShardedFileSystem, persisted (shardCount 0 = not bound yet)
+    private int shardIndex = 0;
+    private int shardCount = 0;
+    private BlockHashIndex hashIndex;
+    private long[] blockHashes; // valid while hashIndex maps it back to the block
+
+    // Replication hook: told about each committed mutation (null = nobody listening)
+    private volatile MutationListener mutationListener;
 
     public FileSystemManager(String filename, int totalSize) {
+        this(filename, totalSize, false);
+    }
+
+    public FileSystemManager(String filename, int totalSize, boolean deduplicate) {
+        this(filename, deduplicate, false);
+    }
+
+    // Offline inspection (fsck without --repair): the image is never written
+    static FileSystemManager openReadOnly(String filename) {
+        return new FileSystemManager(filename, false, true);
+    }
+
+    private FileSystemManager(String filename, boolean deduplicate, boolean readOnly) {
         // Initialize the file system manager with a file
 
-        if(instance == null) {
+        this.deduplicate = deduplicate;
+        this.readOnly = readOnly;
+        this.imagePath = new java.io.File(filename).getAbsolutePath();
+        // Several volumes are fine, but one image must only have one manager
+        if(openImages.add(imagePath)) {
             // We Create a Disk file which will be managed by Filesystem
             try {
-                this.disk = new RandomAccessFile(filename, "rw");
-                inodeTable = new FEntry[MAXFILES];
-                fnodes = new FNode[MAXBLOCKS];
+                this.disk = new RandomAccessFile(filename, readOnly ? "r" : "rw");
+                this.channel = disk.getChannel();
+                entryNames = new String[MAXFILES];
+                entrySizes = new short[MAXFILES];
+                entryFirstBlocks = new short[MAXFILES];
+                java.util.Arrays.fill(entryFirstBlocks, (short) -1);
+                entryLogicalSizes = new short[MAXFILES];
+                entryFlags = new byte[MAXFILES];
+                entryParents = new int[MAXFILES];
+                java.util.Arrays.fill(entryParents, MetadataSnapshot.ROOT);
+                entryModified = new long[MAXFILES];
+                nextBlock = new int[MAXBLOCKS];
+                java.util.Arrays.fill(nextBlock, NO_NODE);
                 freeBlockList = new boolean[MAXBLOCKS];
                 freeBlockList[0] = true; // metadata lives here (reserved area)
+                blockRefs = new int[MAXBLOCKS];
+                hashIndex = new BlockHashIndex(MAXBLOCKS);
+                blockHashes = new long[MAXBLOCKS];
 
                 if (disk.length() >= BLOCK_SIZE) {
                     // Existing filesystem: load previous FEntry/FNode
                     readMetada();
+                    rebuildBlockRefs();
+                    if (deduplicate) {
+                        rebuildFingerprintIndex();
+                    }
+                }
+                if (readOnly) {
+                    publishSnapshot();
                 } else {
-                    // New filesystem: write empty metadata once
+                    // Write metadata once (also marks the image dirty until close())
                     writeMetadata();
                 }
             } catch (Exception e) {
+                openImages.remove(imagePath);
                 throw new RuntimeException("Unable to open disk file");
             }
-            instance = this;
         } else {
-            throw new IllegalStateException("FileSystemManager is already initialized.");
+            throw new IllegalStateException("Disk image " + filename + " is already open.");
         }
 
     }
 
     public void writeMetadata() throws Exception {
-        try {
-            disk.seek(0);
-
-            // Write all FEntry objects
-            for (int i = 0; i < inodeTable.length; i++) {
-                FEntry entry = inodeTable[i];
-
-                // Default values for an empty slot
-                String name;
-                short size;
-                short firstBlock;
-
-                if (entry == null) {
-                    name = "";
-                    size = 0;
-                    firstBlock = -1;
-                } else {
-                    name = entry.getFilename();
-                    size = entry.getFilesize();
-                    firstBlock = entry.getFirstBlock();
-                }
-
-                if (name == null) {
-                    name = "";
-                }
-
-                // 11-byte filename
-                byte[] nameBytes = name.getBytes();
-                for (int j = 0; j < 11; j++) {
-                    if (j < nameBytes.length) {
-                        disk.write(nameBytes[j]);
-                    } else {
-                        disk.write(0);
-                    }
-                }
+        writeMetadata(false);
+    }
 
-                // 2-byte filesize and 2-byte firstBlock
-                disk.writeShort(size);
-                disk.writeShort(firstBlock);
+    // Build block 0 and the extension block in memory, then write each in one call
+    private void writeMetadata(boolean cleanShutdown) throws Exception {
+        ByteBuffer meta = ByteBuffer.allocate(BLOCK_SIZE);
+
+        // Write all FEntry slots
+        for (int i = 0; i < entryNames.length; i++) {
+            // Default values for an empty slot
+            String name;
+            short size;
+            short firstBlock;
+
+            if (entryNames[i] == null) {
+                name = "";
+                size = 0;
+                firstBlock = -1;
+            } else {
+                name = entryNames[i];
+                size = entrySizes[i];
+                firstBlock = entryFirstBlocks[i];
             }
 
-            // Write all FNode objects
-            for (int i = 0; i < fnodes.length; i++) {
-                FNode node = fnodes[i];
-
-                short blockIndex;
-                short next;
+            // 11-byte filename (zero padded)
+            byte[] nameBytes = name.getBytes();
+            for (int j = 0; j < FILENAME_BYTES; j++) {
+                meta.put(j < nameBytes.length ? nameBytes[j] : 0);
+            }
 
-                if (node == null) {
-                    blockIndex = -1;
-                    next = -1;
-                } else {
-                    // make sure FNode has these getters, or add them
-                    blockIndex = (short) node.getBlockIndex();
-                    next = (short) node.getNextBlock();
-                }
+            // 2-byte filesize and 2-byte firstBlock
+            meta.putShort(size);
+            meta.putShort(firstBlock);
+        }
 
-                // 2 bytes blockIndex + 2 bytes next
-                disk.writeShort(blockIndex);
-                disk.writeShort(next);
+        // Write all FNode slots (blockIndex on disk is just the slot number)
+        for (int i = 0; i < nextBlock.length; i++) {
+            if (nextBlock[i] == NO_NODE) {
+                meta.putShort((short) -1);
+                meta.putShort((short) -1);
+            } else {
+                meta.putShort((short) i);
+                meta.putShort((short) nextBlock[i]);
             }
-
-            // Pad the rest of block 0
-            long pos = disk.getFilePointer();
-            while (pos < BLOCK_SIZE) {
-                disk.write(0);
-                pos++;
+        }
+        // The rest of block 0 stays zero
+
+        // Extension region. Header: magic, version, clean flag, image flags, shard count + index,
+        // slot and block counts (the section sizes), length in bytes.
+        // Sections: free bitmap, flags + logical size per entry, parent per entry, modification time per entry
+        int extLength = extLength(entryNames.length, freeBlockList.length, EXT_VERSION);
+        ByteBuffer ext = ByteBuffer.allocate(blocksFor(extLength) * BLOCK_SIZE);
+        ext.putInt(EXT_MAGIC);
+        ext.putShort((short) EXT_VERSION);
+        ext.put((byte) (cleanShutdown ? 1 : 0));
+        ext.put((byte) (sharedBlocks ? IMAGE_SHARED_BLOCKS : 0));
+        ext.putShort((short) shardCount);
+        ext.putShort((short) shardIndex);
+        ext.putInt(entryNames.length);
+        ext.putInt(freeBlockList.length);
+        ext.putInt(extLength);
+        byte[] bitmap = new byte[(freeBlockList.length + 7) / 8];
+        for (int i = 0; i < freeBlockList.length; i++) {
+            if (freeBlockList[i]) {
+                bitmap[i / 8] |= (byte) (1 << (i % 8));
             }
-        } catch (Exception e) {
-            throw e;
         }
+        ext.put(bitmap);
+        for (int i = 0; i < entryNames.length; i++) {
+            ext.put(entryFlags[i]);
+            ext.putShort(entryLogicalSizes[i]);
+        }
+        for (int i = 0; i < entryNames.length; i++) {
+            int parent = entryParents[i] + 1; // 0 = root
+            if (parent < 0 || parent > 0xFFFF) {
+                throw new IOException("Parent slot " + entryParents[i] + " does not fit in the metadata.");
+            }
+            ext.putShort((short) parent);
+        }
+        for (int i = 0; i < entryNames.length; i++) {
+            ext.putLong(entryModified[i]);
+        }
+
+        disk.seek(0);
+        disk.write(meta.array());
+        disk.seek(EXT_OFFSET);
+        disk.write(ext.array());
+
+        publishSnapshot();
     }
 
     public void readMetada() throws Exception {
-        disk.seek(0);
+        fullSnapshot = true;
+        // Bulk read of block 0 (and the extension block when present)
+        ByteBuffer meta = ByteBuffer.allocate(BLOCK_SIZE);
+        channel.read(meta, 0);
+        meta.flip();
 
         // Read FEntries
-        for (int i = 0; i < inodeTable.length; i++) {
+        byte[] nameBuffer = new byte[FILENAME_BYTES];
+        for (int i = 0; i < entryNames.length; i++) {
             // 11 bytes for filename
-            byte[] nameBuffer = new byte[11];
-            disk.readFully(nameBuffer);
+            meta.get(nameBuffer);
 
             // Strip zeros
             int realLen = 0;
-            while (realLen < 11 && nameBuffer[realLen] != 0) {
+            while (realLen < FILENAME_BYTES && nameBuffer[realLen] != 0) {
                 realLen++;
             }
             String name = new String(nameBuffer, 0, realLen);
 
             // 2 bytes size, 2 bytes firstBlock
-            short size = disk.readShort();
-            short firstBlock = disk.readShort();
+            short size = meta.getShort();
+            short firstBlock = meta.getShort();
 
             // Decide if this slot is used or empty
             if (name.isEmpty() && size == 0 && firstBlock < 0) {
-                inodeTable[i] = null;
+                entryNames[i] = null;
+                entrySizes[i] = 0;
+                entryFirstBlocks[i] = -1;
             } else {
-                inodeTable[i] = new FEntry(name, size, firstBlock);
+                entryNames[i] = name;
+                entrySizes[i] = size;
+                entryFirstBlocks[i] = firstBlock;
             }
         }
 
         // Read FNodes
-        for (int i = 0; i < fnodes.length; i++) {
-            short blockIndex = disk.readShort();
-            short next       = disk.readShort();
+        for (int i = 0; i < nextBlock.length; i++) {
+            short blockIndex = meta.getShort();
+            short next       = meta.getShort();
 
             if (blockIndex < 0) {
-                fnodes[i] = null;       // unused node
+                nextBlock[i] = NO_NODE;  // unused node
             } else {
-                FNode node = new FNode(blockIndex);
-                node.setNextBlock(next);
-                fnodes[i] = node;
+                nextBlock[i] = next;
             }
         }
 
-        // Rebuild freeBlockList
-        for (int i = 0; i < freeBlockList.length; i++) {
-            freeBlockList[i] = false;
+        // Extension region, then the header fields; both layouts leave ext at the bitmap
+        ByteBuffer ext = readExtension();
+        boolean hasExt = ext != null;
+        boolean clean = false;
+        int imageFlags = 0;
+        int version = 1;
+        shardCount = 0;
+        shardIndex = 0;
+        if (hasExt && ext.getInt() == EXT_MAGIC_LEGACY) {
+            // FSX1: clean flag, sections, then image flags and shard identity
+            clean = ext.get() == 1;
+            int trailer = ext.position() + sectionsLength(entryNames.length, freeBlockList.length, version);
+            imageFlags = ext.get(trailer);
+            shardCount = ext.getShort(trailer + 1);
+            shardIndex = ext.getShort(trailer + 3);
+        } else if (hasExt) {
+            version = ext.getShort(); // checked by readExtension()
+            clean = ext.get() == 1;
+            imageFlags = ext.get();
+            shardCount = ext.getShort();
+            shardIndex = ext.getShort();
+            ext.position(EXT_HEADER_BYTES);
+        }
+        byte[] bitmap = new byte[(freeBlockList.length + 7) / 8];
+        if (hasExt) {
+            ext.get(bitmap);
         }
 
+        if (clean || (readOnly && hasExt)) {
+            // Clean shutdown: trust the persisted bitmap, no chain walk
+            // (read-only: keep it as stored, so fsck can compare it with the chains)
+            for (int i = 0; i < freeBlockList.length; i++) {
+                freeBlockList[i] = (bitmap[i / 8] & (1 << (i % 8))) != 0;
+            }
+        } else {
+            // Unclean shutdown (or old image): rebuild by walking the chains
+            rebuildFreeBlockList();
+        }
         freeBlockList[0] = true;
 
-        // Mark blocks used by files
-        for (FEntry entry : inodeTable) {
-            if (entry != null) {
-                int current = entry.getFirstBlock();
-                while (current >= 0 && current < freeBlockList.length && !freeBlockList[current]) {
-                    freeBlockList[current] = true;
-
-                    FNode node = fnodes[current];
-                    if (node == null) break;
-                    int next = node.getNextBlock();
-                    if (next == current) break;
-                    current = next;
-                }
+        // Compression flags, logical sizes and parents (old images: everything raw, in the root)
+        for (int i = 0; i < entryNames.length; i++) {
+            entryFlags[i] = hasExt ? ext.get() : 0;
+            short logicalSize = hasExt ? ext.getShort() : 0;
+            entryLogicalSizes[i] = (entryFlags[i] & FLAG_STORED_COMPRESSED) != 0 ? logicalSize : entrySizes[i];
+        }
+        for (int i = 0; i < entryNames.length; i++) {
+            if (!hasExt) {
+                entryParents[i] = MetadataSnapshot.ROOT;
+            } else if (version >= 3) {
+                entryParents[i] = Short.toUnsignedInt(ext.getShort()) - 1;
+            } else {
+                entryParents[i] = Byte.toUnsignedInt(ext.get()) - 1;
             }
         }
+        for (int i = 0; i < entryNames.length; i++) {
+            entryModified[i] = hasExt ? ext.getLong() : 0;
+        }
+        if ((imageFlags & IMAGE_SHARED_BLOCKS) != 0) {
+            sharedBlocks = true;
+        }
+
+        publishSnapshot();
     }
 
-    //CREATE FILE
-    public void createFile(String fileName) throws Exception {
-        startWrite();
-        try{
+    // Bytes of the extension region for this geometry
+    private static int extLength(int slots, int blocks, int version) {
+        return EXT_HEADER_BYTES + sectionsLength(slots, blocks, version);
+    }
 
-            // Check if the file exists
-            FEntry exists = null;
-            try {
-                exists = checkFile(fileName);
-            } catch (Exception e) {
+    // Bitmap, flags + logical sizes, parents (one byte each before version 3), modification times
+    private static int sectionsLength(int slots, int blocks, int version) {
+        int parentBytes = (version >= 3) ? 2 : 1;
+        return (blocks + 7) / 8 + slots * (1 + 2) + slots * parentBytes + slots * 8;
+    }
+
+    private static int blocksFor(int bytes) {
+        return (bytes + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    // Whole extension region from its magic on, or null if the image has none.
+    // The header is read first and says how long the region is; its geometry must match ours.
+    private ByteBuffer readExtension() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(EXT_HEADER_BYTES);
+        if (!readFully(header, EXT_OFFSET)) {
+            return null;
+        }
+        header.flip();
+        int magic = header.getInt();
+        int length;
+        if (magic == EXT_MAGIC_LEGACY) {
+            // One fixed block, only ever written with this geometry
+            length = BLOCK_SIZE;
+        } else if (magic == EXT_MAGIC) {
+            int version = Short.toUnsignedInt(header.getShort());
+            header.position(12);
+            int slots = header.getInt();
+            int blocks = header.getInt();
+            length = header.getInt();
+            if (version > EXT_VERSION) {
+                throw new IOException("Metadata version " + version + " is newer than this server ("
+                        + EXT_VERSION + ").");
+            }
+            if (slots != entryNames.length || blocks != freeBlockList.length || length != extLength(slots, blocks, version)) {
+                throw new IOException("Image has " + slots + " entries and " + blocks + " blocks, expected "
+                        + entryNames.length + " and " + freeBlockList.length + ".");
             }
+        } else {
+            return null;
+        }
+        ByteBuffer ext = ByteBuffer.allocate(length);
+        if (!readFully(ext, EXT_OFFSET)) {
+            throw new EOFException("Metadata region is cut short.");
+        }
+        ext.flip();
+        return ext;
+    }
 
-            if (exists != null) {
-                throw new Exception("Filename already exists. Try again.");
+    // Positional read of the whole buffer; false if the disk ends first
+    private boolean readFully(ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position);
+            if (n < 0) {
+                return false;
             }
+            position += n;
+        }
+        return true;
+    }
 
-            //Check the first available fentry
-            int availableSpace = -1;
-            for (int i=0; i<inodeTable.length; i++){
-                if (inodeTable[i] == null){
-                    availableSpace =i;
-                    break;
+    // Rebuild freeBlockList from the file chains, split across inodes with fork-join
+    private void rebuildFreeBlockList() {
+        BitSet used = ForkJoinPool.commonPool().invoke(new ChainScan(0, entryNames.length));
+        for (int i = 0; i < freeBlockList.length; i++) {
+            freeBlockList[i] = used.get(i);
+        }
+    }
+
+    // Marks the blocks reachable from inodes [from, to)
+    private class ChainScan extends RecursiveTask<BitSet> {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+
+        ChainScan(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected BitSet compute() {
+            if (to - from > INODES_PER_SCAN_TASK) {
+                int mid = (from + to) >>> 1;
+                ChainScan left = new ChainScan(from, mid);
+                left.fork();
+                BitSet used = new ChainScan(mid, to).compute();
+                used.or(left.join());
+                return used;
+            }
+
+            BitSet used = new BitSet(freeBlockList.length);
+            for (int i = from; i < to; i++) {
+                if (entryNames[i] != null) {
+                    int current = entryFirstBlocks[i];
+                    // Stops on a broken link or a block already marked (cycle / cross-link)
+                    while (current >= 0 && current < freeBlockList.length && !used.get(current)) {
+                        used.set(current);
+                        current = nextBlock[current];
+                    }
                 }
             }
+            return used;
+        }
+    }
 
-            if (availableSpace ==-1){
-                throw new Exception("No free file entries available.");
+    // Persist metadata with the clean flag set so the next start skips the rebuild
+    @Override
+    public void close() throws Exception {
+        startWrite();
+        try {
+            if (!readOnly) {
+                writeMetadata(true);
+                channel.force(true);
+            }
+            disk.close();
+            openImages.remove(imagePath);
+        } finally {
+            endWrite();
+        }
+    }
+
+    // Record (first time) or verify this image's place in a set of shards
+    void bindShard(int index, int count) throws Exception {
+        startWrite();
+        try {
+            if (shardCount == 0) {
+                shardIndex = index;
+                shardCount = count;
+                writeMetadata();
+            } else if (shardIndex != index || shardCount != count) {
+                throw new IllegalStateException("Disk image " + imagePath + " is shard " + (shardIndex + 1)
+                        + " of " + shardCount + ", not shard " + (index + 1) + " of " + count + ".");
             }
+        } finally {
+            endWrite();
+        }
+    }
+
+    // Swap in a fresh immutable copy of the metadata for lock-free readers
+    private void publishSnapshot() {
+        snapshot = MetadataSnapshot.of(fullSnapshot ? null : snapshot, dirtySlots, dirtyBlocks,
+                entryNames, entrySizes, entryFirstBlocks, entryLogicalSizes, entryFlags,
+                entryParents, entryModified, nextBlock, freeBlockList);
+        dirtySlots.clear();
+        dirtyBlocks.clear();
+        fullSnapshot = false;
+    }
+
+    //CREATE FILE
+    @Override
+    public void createFile(String fileName) throws Exception {
+        createFile(fileName, false);
+    }
+
+    // compressed = store this file's contents LZ4-compressed when it saves space
+    @Override
+    public void createFile(String fileName, boolean compressed) throws Exception {
+        startWrite();
+        try{
+
+            // Check the parent directory and if the file exists
+            String[] components = pathComponents(fileName);
+            int parent = requireParent(components, fileName);
+
+            //Check the first available fentry
+            int availableSpace = freeEntrySlot();
 
             // Check if free/occupied nodes
             short freeBlock=0;
@@ -233,32 +542,186 @@ public class FileSystemManager {
                 throw new Exception("No free blocks available.");
 
             }
+
+            //Create the file (FEntry validates the name)
+            FEntry newFile = new FEntry (components[components.length - 1], (short)0, freeBlock);
             freeBlockList[freeBlock]= true;
+            blockRefs[freeBlock] = 1;
+            dirtyBlocks.set(freeBlock);
+            dirtySlots.set(availableSpace);
+            entryNames[availableSpace] = newFile.getFilename(); //Store the new file
+            entrySizes[availableSpace] = 0;
+            entryFirstBlocks[availableSpace] = freeBlock;
+            entryLogicalSizes[availableSpace] = 0;
+            entryFlags[availableSpace] = (byte) (compressed ? FLAG_COMPRESS : 0);
+            entryParents[availableSpace] = parent;
+            entryModified[availableSpace] = System.currentTimeMillis();
+            writeMetadata();
+            notifyCommitted(MutationListener.Type.CREATE, components, null, compressed);
+        } finally {
+            endWrite();
+        }
+    }
+
+    //MAKE DIRECTORY
+    @Override
+    public void makeDirectory(String path) throws Exception {
+        startWrite();
+        try {
+            String[] components = pathComponents(path);
+            int parent = requireParent(components, path);
+            int availableSpace = freeEntrySlot();
+
+            // Directories only live in the inode table, they use no block
+            FEntry newDirectory = new FEntry(components[components.length - 1], (short) 0, (short) -1);
+            dirtySlots.set(availableSpace);
+            entryNames[availableSpace] = newDirectory.getFilename();
+            entrySizes[availableSpace] = 0;
+            entryFirstBlocks[availableSpace] = -1;
+            entryLogicalSizes[availableSpace] = 0;
+            entryFlags[availableSpace] = FLAG_DIRECTORY;
+            entryParents[availableSpace] = parent;
+            entryModified[availableSpace] = System.currentTimeMillis();
+            writeMetadata();
+            notifyCommitted(MutationListener.Type.MKDIR, components, null, false);
+        } finally {
+            endWrite();
+        }
+    }
+
+    //REMOVE DIRECTORY (must be empty)
+    @Override
+    public void removeDirectory(String path) throws Exception {
+        startWrite();
+        try {
+            String[] components = pathComponents(path);
+            int target = snapshot.resolve(components);
+            if (target == MetadataSnapshot.MISSING || target == MetadataSnapshot.ROOT
+                    || !snapshot.isDirectory(target)) {
+                throw new Exception("ERROR: directory " + path + " does not exist.");
+            }
+            if (snapshot.list(target).length > 0) {
+                throw new Exception("ERROR: directory " + path + " is not empty.");
+            }
 
-            //Create the file
-            FEntry newFile = new FEntry (fileName, (short)0, freeBlock);
-            inodeTable[availableSpace] = newFile; //Store the new file
+            dirtySlots.set(target);
+            entryNames[target] = null;
+            entryFlags[target] = 0;
+            entryParents[target] = MetadataSnapshot.ROOT;
+            entryModified[target] = 0;
             writeMetadata();
+            notifyCommitted(MutationListener.Type.RMDIR, components, null, false);
         } finally {
             endWrite();
         }
     }
 
+    //LIST ONE DIRECTORY (lock-free)
+    @Override
+    public String[] listDirectory(String path) throws Exception {
+        MetadataSnapshot snap = snapshot;
+        int dir = snap.resolve(pathComponents(path));
+        if (dir == MetadataSnapshot.MISSING || !snap.isDirectory(dir)) {
+            throw new Exception("ERROR: directory " + path + " does not exist.");
+        }
+        return snap.list(dir);
+    }
+
+    //LIST ONE PAGE (lock-free): names starting with prefix, after cursor (null = first page)
+    @Override
+    public ListPage listDirectory(String path, String prefix, String cursor, int limit) throws Exception {
+        if (limit <= 0) {
+            throw new Exception("ERROR: page size must be positive.");
+        }
+        MetadataSnapshot snap = snapshot;
+        int dir = snap.resolve(pathComponents(path));
+        if (dir == MetadataSnapshot.MISSING || !snap.isDirectory(dir)) {
+            throw new Exception("ERROR: directory " + path + " does not exist.");
+        }
+        return snap.page(dir, (prefix != null) ? prefix : "", cursor, limit);
+    }
+
+    // "/a//b/" -> [a, b]; the empty path is the root
+    static String[] pathComponents(String path) throws Exception {
+        java.util.List<String> components = new java.util.ArrayList<>();
+        for (String component : path.split("/")) {
+            if (component.isEmpty()) continue;
+            if (component.equals(".") || component.equals("..")) {
+                throw new Exception("ERROR: invalid path " + path + ".");
+            }
+            components.add(component);
+        }
+        return components.toArray(new String[0]);
+    }
+
+    // Directory that will hold a new entry at this path (name must be free there)
+    private int requireParent(String[] components, String path) throws Exception {
+        if (components.length == 0) {
+            throw new Exception("ERROR: invalid path " + path + ".");
+        }
+        int parent = snapshot.resolve(java.util.Arrays.copyOf(components, components.length - 1));
+        if (parent == MetadataSnapshot.MISSING || !snapshot.isDirectory(parent)) {
+            throw new Exception("ERROR: parent directory of " + path + " does not exist.");
+        }
+        if (snapshot.lookup(parent, components[components.length - 1]) != MetadataSnapshot.MISSING) {
+            throw new Exception("Filename already exists. Try again.");
+        }
+        return parent;
+    }
+
+    private int freeEntrySlot() throws Exception {
+        for (int i=0; i<entryNames.length; i++){
+            if (entryNames[i] == null){
+                return i;
+            }
+        }
+        throw new Exception("No free file entries available.");
+    }
+
     //WRITE FILE
+    @Override
     public void writeFile(String fileName, byte[] contents) throws Exception {
         startWrite();
         globalLock.lock();
 
         try {
             // Check if the file exists and finds first entry
-            FEntry target = checkFile(fileName);
+            int target = requireSlot(fileName);
+            if (contents.length > 0xFFFF) {
+                throw new Exception("ERROR: file too large.");
+            }
+
+            // Compression mode: keep the LZ4 form only if it is smaller
+            byte[] stored = contents;
+            if ((entryFlags[target] & FLAG_COMPRESS) != 0) {
+                byte[] packed = Lz4Codec.compress(contents);
+                if (packed.length < contents.length) {
+                    stored = packed;
+                }
+            }
     
             // Calculate how many blocks we need
-            int bytesToWrite = contents.length;
+            int bytesToWrite = stored.length;
             int blocksNeeded = (int) Math.ceil((double) bytesToWrite / BLOCK_SIZE);
 
-            // Find freeblocks to write to
-            java.util.List<Integer> chosenBlocks = new java.util.ArrayList<>(); 
+            // Split into zero-padded blocks (what ends up on disk)
+            byte[][] blockData = new byte[blocksNeeded][];
+            for (int i = 0; i < blocksNeeded; i++) {
+                int from = i * BLOCK_SIZE;
+                blockData[i] = java.util.Arrays.copyOfRange(stored, from, from + BLOCK_SIZE);
+            }
+
+            // Dedup: longest tail of the file already stored as an identical chain
+            int sharedFrom = blocksNeeded;
+            int sharedHead = -1;
+            if (deduplicate) {
+                while (sharedFrom > 0) {
+                    int existing = findDuplicate(blockData[sharedFrom - 1], sharedHead);
+                    if (existing < 0) break;
+                    sharedHead = existing;
+                    sharedFrom--;
+                }
+            }
 
             // Make sure we have enough free blocks
             int freeCount = 0;
@@ -266,95 +729,79 @@ public class FileSystemManager {
                 if (!used) freeCount++;     
             }
                 
-            if (blocksNeeded > freeCount){
+            int oldHead = entryFirstBlocks[target];
+            if (sharedFrom > freeCount + releasableBlocks(oldHead, sharedHead)){
                 throw new Exception("ERROR: file too large.");
             }
 
-            // Free old blocks used by this file
-            short oldFirstBlock = target.getFirstBlock();
-            int oldCurrent = oldFirstBlock;
-
-            while (oldCurrent >= 0 && oldCurrent < freeBlockList.length) {
-                FNode oldNode = fnodes[oldCurrent];
-                int oldNext = -1;
-
-                if (oldNode != null) {
-                    oldNext = oldNode.getNextBlock();
-                }
-
-                // Clear old block data
-                long oldOffset = (long) oldCurrent * BLOCK_SIZE;
-                disk.seek(oldOffset);
-                byte[] zeros = new byte[BLOCK_SIZE];
-                disk.write(zeros);
-
-                // Mark free
-                freeBlockList[oldCurrent] = false;
-
-                // Remove node
-                fnodes[oldCurrent] = null;
-
-                // Move through chain
-                oldCurrent = oldNext;
+            // Hold the shared tail; the old chain stays untouched until the new one is published
+            if (sharedHead >= 0) {
+                blockRefs[sharedHead]++;
+                sharedBlocks = true; // from now on fsck must accept shared tails
+            }
+            if (sharedFrom > freeCount) {
+                // Disk too full for a second copy: overwrite in place (readers wait for the reclaim)
+                releaseChain(oldHead);
+                oldHead = -1;
             }
 
-
-            for (int i = 1; i < freeBlockList.length && chosenBlocks.size() < blocksNeeded; i++) {
+            // Find freeblocks to write to (copy-on-write: never the blocks of the old chain)
+            java.util.List<Integer> chosenBlocks = new java.util.ArrayList<>(); 
+            for (int i = 1; i < freeBlockList.length && chosenBlocks.size() < sharedFrom; i++) {
                 if (!freeBlockList[i]) {
                     chosenBlocks.add(i);
                 }
             }  
 
-            // Mark blocks as used and set up FNode
+            // Mark blocks as used and link the chain (the last new block joins the shared tail)
             for (int i = 0; i < chosenBlocks.size(); i++) {
                 int blockIndex = chosenBlocks.get(i);
 
                 // mark as used
+                dirtyBlocks.set(blockIndex);
                 freeBlockList[blockIndex] = true;
+                blockRefs[blockIndex] = 1;
 
-                // create or reuse FNode
-                FNode node = fnodes[blockIndex];
-                if (node == null) {
-                    node = new FNode(blockIndex);
-                    fnodes[blockIndex] = node;
-                }
-
-                // link to next block (or -1 if last)
+                // link to next block (or the shared tail / -1 if last)
                 if (i == chosenBlocks.size() - 1) {
-                    node.setNextBlock(-1);
+                    nextBlock[blockIndex] = sharedHead;
                 } else {
-                    int nextBlockIndex = chosenBlocks.get(i + 1);
-                    node.setNextBlock(nextBlockIndex);
+                    nextBlock[blockIndex] = chosenBlocks.get(i + 1);
                 }
             }
 
-            // Update FEntry metadata
-            short headBlock = chosenBlocks.get(0).shortValue();
-            target.setFirstBlock(headBlock);
-            target.setFilesize((short) bytesToWrite);
-
-            // Write data in all blocks
-            int remaining = bytesToWrite;
-            int contentOffset = 0;
-            int currentBlock = headBlock;
-
-            while (currentBlock != -1 && remaining > 0) {
-                long diskOffset = (long) currentBlock * BLOCK_SIZE;
-                disk.seek(diskOffset);
-
-                int bytesThisBlock = Math.min(remaining, BLOCK_SIZE);
-                disk.write(contents, contentOffset, bytesThisBlock);
-
-                contentOffset += bytesThisBlock;
-                remaining -= bytesThisBlock;
-
-                currentBlock = fnodes[currentBlock].getNextBlock();
+            // Write data in the new blocks (full blocks, so padding is always zero)
+            for (int i = 0; i < chosenBlocks.size(); i++) {
+                int blockIndex = chosenBlocks.get(i);
+                disk.seek((long) blockIndex * BLOCK_SIZE);
+                disk.write(blockData[i]);
+                if (deduplicate) {
+                    registerFingerprint(blockIndex, blockData[i]);
+                }
             }
 
             // Update metadata
-            target.setFilesize((short) bytesToWrite);
+            short headBlock = (short) (chosenBlocks.isEmpty() ? sharedHead : chosenBlocks.get(0));
+            dirtySlots.set(target);
+            entryFirstBlocks[target] = headBlock;
+            entrySizes[target] = (short) bytesToWrite;
+            entryLogicalSizes[target] = (short) contents.length;
+            entryModified[target] = System.currentTimeMillis();
+            if (stored != contents) {
+                entryFlags[target] |= FLAG_STORED_COMPRESSED;
+            } else {
+                entryFlags[target] &= ~FLAG_STORED_COMPRESSED;
+            }
+            writeMetadata();
+
+            // Readers now see the new chain: free the old blocks no other file shares
+            releaseChain(oldHead);
             writeMetadata();
-            System.out.println("File " + fileName + " written successfully (" + bytesToWrite + " bytes).");
+            notifyCommitted(MutationListener.Type.WRITE, pathComponents(fileName), contents, false);
+            System.out.println("File " + fileName + " written successfully (" + contents.length + " bytes"
+                    + (stored != contents ? ", " + bytesToWrite + " stored" : "")
+                    + (sharedFrom < blocksNeeded ? ", " + (blocksNeeded - sharedFrom) + " block(s) shared" : "")
+                    + ").");
 
         } catch (Exception e) {
             throw new Exception("Error writing file: " + e.getMessage());
@@ -364,117 +811,389 @@ public class FileSystemManager {
         }
     }
 
+    // Blocks releaseChain(head) would free, not counting the ones from pinned on (kept by the new chain)
+    private int releasableBlocks(int head, int pinned) {
+        int count = 0;
+        int current = head;
+        while (current > 0 && current < freeBlockList.length && current != pinned && blockRefs[current] == 1) {
+            count++;
+            current = nextBlock[current];
+        }
+        return count;
+    }
+
+    // Drop one reference to the chain; blocks are freed once nobody uses them
+    private void releaseChain(int head) throws IOException {
+        if (head > 0) {
+            beginReclaim();
+        }
+        int current = head;
+        byte[] zeros = new byte[BLOCK_SIZE];
+        while (current > 0 && current < freeBlockList.length) {
+            // Still used by another file: the rest of the chain stays too
+            if (--blockRefs[current] > 0) {
+                break;
+            }
+            int next = Math.max(nextBlock[current], -1);
+
+            // Clear block contents on disk
+            disk.seek((long) current * BLOCK_SIZE);
+            disk.write(zeros);
+
+            // Mark free and remove node
+            dirtyBlocks.set(current);
+            unregisterFingerprint(current);
+            blockRefs[current] = 0;
+            freeBlockList[current] = false;
+            nextBlock[current] = NO_NODE;
+
+            // Move through chain
+            current = next;
+        }
+    }
+
+    // Reference counts = head pointers + next pointers of used blocks
+    private void rebuildBlockRefs() {
+        java.util.Arrays.fill(blockRefs, 0);
+        for (int i = 0; i < entryNames.length; i++) {
+            if (entryNames[i] != null && entryFirstBlocks[i] > 0 && entryFirstBlocks[i] < blockRefs.length) {
+                blockRefs[entryFirstBlocks[i]]++;
+            }
+        }
+        for (int block = 1; block < nextBlock.length; block++) {
+            int next = nextBlock[block];
+            if (freeBlockList[block] && next > 0 && next < blockRefs.length) {
+                blockRefs[next]++;
+            }
+        }
+    }
+
+    /*
+        Dedup helpers.
+        A block's hash covers its data AND its next pointer, so two
+        files only share a block when they also share everything after it
+        (one next pointer per physical block). The hash only finds a
+        candidate; the bytes on disk decide.
+    */
+    private void rebuildFingerprintIndex() throws IOException {
+        hashIndex.clear();
+        byte[] buf = new byte[BLOCK_SIZE];
+        for (int block = 1; block < freeBlockList.length; block++) {
+            if (blockRefs[block] > 0) {
+                readBlock(block, buf, 0, BLOCK_SIZE);
+                registerFingerprint(block, buf);
+            }
+        }
+    }
+
+    private void registerFingerprint(int block, byte[] data) {
+        blockHashes[block] = BlockHashIndex.hash(data, nextBlock[block]);
+        hashIndex.putIfAbsent(blockHashes[block], block);
+    }
+
+    private void unregisterFingerprint(int block) {
+        hashIndex.remove(blockHashes[block], block);
+    }
+
+    // Used block holding exactly this data and followed by next, or -1
+    private int findDuplicate(byte[] data, int next) throws IOException {
+        int block = hashIndex.get(BlockHashIndex.hash(data, next));
+        if (block <= 0 || !freeBlockList[block] || Math.max(nextBlock[block], -1) != Math.max(next, -1)) {
+            return -1;
+        }
+        byte[] stored = new byte[BLOCK_SIZE];
+        readBlock(block, stored, 0, BLOCK_SIZE);
+        return java.util.Arrays.equals(stored, data) ? block : -1;
+    }
+
     //READ FILE
+    @Override
     public byte[] readFile(String fileName) throws Exception {
+        // Optimistic pass: no lock, retry if blocks were freed while we were reading.
+        // A write in progress does not matter, it only fills free blocks.
+        int waits = 0;
+        for (int attempt = 0; attempt < OPTIMISTIC_READ_ATTEMPTS; ) {
+            long seq = reclaimSeq;
+            if ((seq & 1) != 0) {
+                // Blocks are being freed right now (short): wait without using up an attempt
+                if (++waits > RECLAIM_SPINS + RECLAIM_PARKS) {
+                    break;
+                }
+                if (waits <= RECLAIM_SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(RECLAIM_PARK_NANOS);
+                }
+                continue;
+            }
+            attempt++;
+            try {
+                byte[] buf = readFromSnapshot(snapshot, fileName);
+                if (reclaimSeq == seq) {
+                    return buf;
+                }
+            } catch (Exception e) {
+                // Nothing was freed, so this is a real error (missing file, ...);
+                // otherwise the blocks may be torn (e.g. undecodable LZ4 data): retry
+                if (reclaimSeq == seq) {
+                    throw e;
+                }
+            }
+        }
+
+        // Reclaims keep winning: fall back to the reader lock
         startRead();
         try {
-            // Check if the file exists and finds first entry
-            FEntry target = checkFile(fileName);
-
-            // Get size and offset
-            int size = Short.toUnsignedInt(target.getFilesize());
-            if (size == 0) return new byte[0];
-
-            // Reading bytes
-            byte[] buf = new byte[size];
-            int remaining = size;
-            int bufOffset = 0;
-            int currentBlock = target.getFirstBlock();
+            return readFromSnapshot(snapshot, fileName);
+        } finally {
+            endRead();
+        }
+    }
 
-            while (currentBlock != -1 && remaining > 0) {
-                long diskOffset = (long) currentBlock * BLOCK_SIZE;
-                disk.seek(diskOffset);
+    private byte[] readFromSnapshot(MetadataSnapshot snap, String fileName) throws Exception {
+        // Check if the file exists and finds first entry
+        int slot = snap.resolve(pathComponents(fileName));
+        if (slot == MetadataSnapshot.MISSING || slot == MetadataSnapshot.ROOT) {
+            throw new Exception("ERROR: file " + fileName + " does not exist.");
+        }
+        if (snap.isDirectory(slot)) {
+            throw new Exception("ERROR: " + fileName + " is a directory.");
+        }
+        return readSlot(snap, slot);
+    }
 
-                int bytesThisBlock = Math.min(remaining, BLOCK_SIZE);
-                disk.readFully(buf, bufOffset, bytesThisBlock);
+    private byte[] readSlot(MetadataSnapshot snap, int slot) throws Exception {
+        // Get size and offset (bytes on disk, may be compressed)
+        int size = snap.storedSize(slot);
+        if (size == 0) return new byte[0];
+
+        // Reading bytes
+        byte[] buf = new byte[size];
+        int bufOffset = 0;
+        for (int block : snap.blockChain(slot)) {
+            int bytesThisBlock = Math.min(size - bufOffset, BLOCK_SIZE);
+            readBlock(block, buf, bufOffset, bytesThisBlock);
+            bufOffset += bytesThisBlock;
+        }
 
-                bufOffset += bytesThisBlock;
-                remaining -= bytesThisBlock;
+        if (snap.isStoredCompressed(slot)) {
+            return Lz4Codec.decompress(buf, snap.fileSize(slot));
+        }
+        return buf;
+    }
 
-                FNode node = fnodes[currentBlock];
-                currentBlock = (node != null) ? node.getNextBlock() : -1;
+    // Positional read: does not move the shared file pointer used by writers
+    private void readBlock(int block, byte[] buf, int offset, int length) throws IOException {
+        ByteBuffer dst = ByteBuffer.wrap(buf, offset, length);
+        long position = (long) block * BLOCK_SIZE;
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position);
+            if (n < 0) {
+                throw new EOFException("Block " + block + " is past the end of the disk.");
             }
+            position += n;
+        }
+    }
 
-            return buf;
+    //LIST ALL FILES (top-level directory)
+    @Override
+    public String[] listFiles() {
+        return snapshot.list(MetadataSnapshot.ROOT);
+    }
 
+    //CHECK EXISTENCE (lock-free)
+    @Override
+    public boolean fileExists(String fileName) {
+        try {
+            MetadataSnapshot snap = snapshot;
+            int slot = snap.resolve(pathComponents(fileName));
+            return slot >= 0 && !snap.isDirectory(slot);
         } catch (Exception e) {
-            throw new Exception(e.getMessage());
-        } finally {
-            endRead();
+            return false;
         }
     }
 
-    //LIST ALL FILES
-    public String[] listFiles() throws Exception {
-        startRead();
+    //COMPACT ONE FILE (used by BlockCompactor)
+    BlockCompactor.Step compactFile(int slot) throws Exception {
+        // Never wait for the lock: foreground requests go first
+        if (!tryStartWrite()) {
+            return BlockCompactor.Step.BUSY;
+        }
         try {
-            int fileCount = 0;
-            for (int i=0; i< inodeTable.length; i++){
-                FEntry entry = inodeTable[i];
-                if(entry != null){
-                    fileCount ++;
+            if (entryNames[slot] == null) {
+                return BlockCompactor.Step.SKIPPED;
+            }
+
+            // Current chain, and whether it is already one contiguous run
+            java.util.List<Integer> oldBlocks = new java.util.ArrayList<>();
+            int current = entryFirstBlocks[slot];
+            boolean contiguous = true;
+            boolean shared = false;
+            while (current > 0 && current < freeBlockList.length && oldBlocks.size() < freeBlockList.length) {
+                if (!oldBlocks.isEmpty() && current != oldBlocks.get(oldBlocks.size() - 1) + 1) {
+                    contiguous = false;
                 }
+                shared |= blockRefs[current] > 1;
+                oldBlocks.add(current);
+                current = nextBlock[current];
+            }
+            // Shared (dedup) blocks stay where they are
+            if (contiguous || shared || oldBlocks.size() < 2) {
+                return BlockCompactor.Step.SKIPPED;
             }
-            String[] filesAvailable = new String[fileCount];
-            int index=0;
 
-            for (int i=0; i< inodeTable.length; i++){
-                FEntry entry = inodeTable[i];
-                if(entry != null){
-                    filesAvailable[index] = entry.getFilename();
-                    index++;
+            // Lowest run of free blocks long enough for the whole file
+            int runStart = -1;
+            int runLength = 0;
+            for (int i = 1; i < freeBlockList.length && runLength < oldBlocks.size(); i++) {
+                if (freeBlockList[i]) {
+                    runLength = 0;
+                } else {
+                    if (runLength == 0) runStart = i;
+                    runLength++;
                 }
             }
-            return filesAvailable;
-        } catch (Exception e) {
-            throw new Exception(e.getMessage());
-        } finally{
+            if (runLength < oldBlocks.size()) {
+                return BlockCompactor.Step.SKIPPED;
+            }
+
+            // 1. Copy the data into the new run and flush it
+            byte[][] data = new byte[oldBlocks.size()][BLOCK_SIZE];
+            for (int i = 0; i < oldBlocks.size(); i++) {
+                readBlock(oldBlocks.get(i), data[i], 0, BLOCK_SIZE);
+                disk.seek((long) (runStart + i) * BLOCK_SIZE);
+                disk.write(data[i]);
+            }
+            channel.force(false);
+
+            // 2. Switch the file to the new chain in one metadata write
+            for (int i = 0; i < oldBlocks.size(); i++) {
+                dirtyBlocks.set(oldBlocks.get(i));
+                unregisterFingerprint(oldBlocks.get(i));
+                blockRefs[oldBlocks.get(i)] = 0;
+                freeBlockList[oldBlocks.get(i)] = false;
+                nextBlock[oldBlocks.get(i)] = NO_NODE;
+            }
+            for (int i = 0; i < oldBlocks.size(); i++) {
+                int block = runStart + i;
+                dirtyBlocks.set(block);
+                blockRefs[block] = 1;
+                freeBlockList[block] = true;
+                nextBlock[block] = (i == oldBlocks.size() - 1) ? -1 : block + 1;
+                if (deduplicate) {
+                    registerFingerprint(block, data[i]);
+                }
+            }
+            dirtySlots.set(slot);
+            entryFirstBlocks[slot] = (short) runStart;
+            writeMetadata();
+            channel.force(true); // new metadata must be on disk before the old data goes
+
+            // 3. Only now clear the old blocks
+            beginReclaim();
+            byte[] zeros = new byte[BLOCK_SIZE];
+            for (int oldBlock : oldBlocks) {
+                disk.seek((long) oldBlock * BLOCK_SIZE);
+                disk.write(zeros);
+            }
+            return BlockCompactor.Step.MOVED;
+        } finally {
+            endWrite();
+        }
+    }
+
+    int fileSlots() {
+        return entryNames.length;
+    }
+
+    // Tests: the published snapshot, and one built from scratch from the live tables
+    MetadataSnapshot currentSnapshot() {
+        return snapshot;
+    }
+
+    MetadataSnapshot rebuiltSnapshot() throws InterruptedException {
+        startRead();
+        try {
+            return MetadataSnapshot.of(entryNames, entrySizes, entryFirstBlocks, entryLogicalSizes, entryFlags,
+                    entryParents, entryModified, nextBlock, freeBlockList);
+        } finally {
             endRead();
         }
     }
 
+    //CONSISTENCY CHECK (fsck)
+    public FileSystemChecker.Report checkConsistency(boolean repair) throws Exception {
+        if (repair && readOnly) {
+            throw new Exception("ERROR: disk image is open read-only.");
+        }
+        // Scan the published snapshot without any lock
+        // Shared tails are legal on any image that was ever deduplicated, whatever the current setting
+        FileSystemChecker.Report report = FileSystemChecker.check(snapshot, sharedBlocks);
+        if (!repair || report.isClean()) {
+            return report;
+        }
+
+        // Re-check the live tables under the write lock, then apply the repaired ones
+        startWrite();
+        try {
+            report = FileSystemChecker.check(
+                    MetadataSnapshot.of(entryNames, entrySizes, entryFirstBlocks, entryLogicalSizes, entryFlags,
+                entryParents, entryModified, nextBlock, freeBlockList), sharedBlocks);
+            if (!report.isClean()) {
+                beginReclaim(); // cut chains and freed blocks may still be in readers' snapshots
+                String[] oldPaths = slotPaths();
+                short[] oldSizes = entrySizes.clone();
+                short[] oldFirstBlocks = entryFirstBlocks.clone();
+
+                // A cut compressed file can no longer be decoded: expose what is left raw
+                for (int i = 0; i < entrySizes.length; i++) {
+                    if (report.sizes[i] != entrySizes[i]) {
+                        entryFlags[i] &= ~FLAG_STORED_COMPRESSED;
+                    }
+                    if ((entryFlags[i] & FLAG_STORED_COMPRESSED) == 0) {
+                        entryLogicalSizes[i] = report.sizes[i];
+                    }
+                }
+                System.arraycopy(report.sizes, 0, entrySizes, 0, entrySizes.length);
+                System.arraycopy(report.firstBlocks, 0, entryFirstBlocks, 0, entryFirstBlocks.length);
+                System.arraycopy(report.nextBlocks, 0, nextBlock, 0, nextBlock.length);
+                System.arraycopy(report.usedBlocks, 0, freeBlockList, 0, freeBlockList.length);
+                System.arraycopy(report.parents, 0, entryParents, 0, entryParents.length);
+                fullSnapshot = true;
+                rebuildBlockRefs();
+                if (deduplicate) {
+                    rebuildFingerprintIndex();
+                }
+                writeMetadata();
+                notifyRepaired(oldPaths, oldSizes, oldFirstBlocks);
+            }
+            return report;
+        } finally {
+            endWrite();
+        }
+    }
+
     //DELETE FILES
+    @Override
     public void deleteFile(String fileName) throws Exception{
         startWrite();
         try {
             //Check if file name exists
-            FEntry target = checkFile(fileName);
-
-            short firstBlock = target.getFirstBlock();
-            int current = firstBlock;
-
-            // Clear every block
-            while (current >= 0 && current < freeBlockList.length) {
-                // Save next before we kill this node
-                FNode node = fnodes[current];
-                int next = -1;
-                if (node != null) {
-                    next = node.getNextBlock();
-                }
-
-                // Clear block contents on disk
-                long offset = (long) current * BLOCK_SIZE;
-                disk.seek(offset);
-                byte[] zeros = new byte[BLOCK_SIZE];
-                disk.write(zeros);
-
-                // Mark block free
-                freeBlockList[current] = false;
-
-                // Remove FNode
-                fnodes[current] = null;
-
-                // Move to next
-                current = next;
-            }
-            
-            for(int i=0; i< inodeTable.length; i++){
-                if(inodeTable[i] == target){
-                    inodeTable[i] = null;
-                    break;
-                }
-            }   
+            int target = requireSlot(fileName);
+
+            // Free every block no other file shares
+            releaseChain(entryFirstBlocks[target]);
+
+            dirtySlots.set(target);
+            entryNames[target] = null;
+            entrySizes[target] = 0;
+            entryFirstBlocks[target] = -1;
+            entryLogicalSizes[target] = 0;
+            entryFlags[target] = 0;
+            entryParents[target] = MetadataSnapshot.ROOT;
+            entryModified[target] = 0;
             writeMetadata();
+            notifyCommitted(MutationListener.Type.DELETE, pathComponents(fileName), null, false);
 
         } catch (Exception e) {
             throw new Exception ("ERROR: " + e.getMessage());
@@ -483,25 +1202,121 @@ public class FileSystemManager {
         }
     }
 
-    //CHECK FILE
-    public FEntry checkFile(String fileName) throws Exception {
-        boolean fileExist = false;
-        FEntry target = null;
+    // Replaces the current listener; pass null to stop
+    @Override
+    public void setMutationListener(MutationListener listener) {
+        mutationListener = listener;
+    }
 
-        //Check if file exists and takes first entry
-        for (int i=0; i<inodeTable.length; i++){
-            FEntry entry = inodeTable[i];
-            if (entry != null && entry.getFilename().equals(fileName)){
-                fileExist = true;
-                target = entry;
+    // Still under the write lock, so listeners see mutations in commit order
+    // Replays a repair as ordinary mutations, so followers end up with the repaired tree
+    private void notifyRepaired(String[] oldPaths, short[] oldSizes, short[] oldFirstBlocks) throws Exception {
+        if (mutationListener == null) {
+            return;
+        }
+        String[] newPaths = slotPaths();
+        java.util.List<Integer> moved = new java.util.ArrayList<>();
+        for (int slot = 0; slot < entryNames.length; slot++) {
+            boolean changed = !java.util.Objects.equals(oldPaths[slot], newPaths[slot])
+                    || oldSizes[slot] != entrySizes[slot] || oldFirstBlocks[slot] != entryFirstBlocks[slot];
+            if (entryNames[slot] != null && changed) {
+                moved.add(slot);
             }
         }
+        // Parents before children when creating, children before parents when removing
+        moved.sort(java.util.Comparator.comparingInt(slot -> newPaths[slot].split("/").length));
 
-        if(fileExist == false) {
-            throw new Exception("ERROR: file " + fileName + " does not exist.");
+        for (int slot : moved) {
+            if ((entryFlags[slot] & FLAG_DIRECTORY) == 0 && oldPaths[slot] != null
+                    && !oldPaths[slot].equals(newPaths[slot])) {
+                notifyCommitted(MutationListener.Type.DELETE, pathComponents(oldPaths[slot]), null, false);
+            }
+        }
+        java.util.List<String> oldDirectories = new java.util.ArrayList<>();
+        for (int slot : moved) {
+            if ((entryFlags[slot] & FLAG_DIRECTORY) != 0 && oldPaths[slot] != null
+                    && !oldPaths[slot].equals(newPaths[slot])) {
+                oldDirectories.add(oldPaths[slot]);
+            }
+        }
+        oldDirectories.sort(java.util.Comparator.comparingInt((String path) -> path.split("/").length).reversed());
+        for (String path : oldDirectories) {
+            notifyCommitted(MutationListener.Type.RMDIR, pathComponents(path), null, false);
+        }
+        for (int slot : moved) {
+            String[] components = pathComponents(newPaths[slot]);
+            if ((entryFlags[slot] & FLAG_DIRECTORY) != 0) {
+                notifyCommitted(MutationListener.Type.MKDIR, components, null, false);
+                continue;
+            }
+            byte[] contents;
+            try {
+                contents = readSlot(snapshot, slot);
+            } catch (Exception e) {
+                // The repair is already on disk; followers catch up on their next snapshot
+                System.err.println("fsck: could not replicate " + newPaths[slot] + ": " + e.getMessage());
+                continue;
+            }
+            notifyCommitted(MutationListener.Type.CREATE, components, null, (entryFlags[slot] & FLAG_COMPRESS) != 0);
+            notifyCommitted(MutationListener.Type.WRITE, components, contents, false);
+        }
+    }
+
+    // Full path of every live entry (null for empty slots and entries caught in a directory loop)
+    private String[] slotPaths() {
+        String[] paths = new String[entryNames.length];
+        for (int slot = 0; slot < entryNames.length; slot++) {
+            if (entryNames[slot] == null) {
+                continue;
+            }
+            String path = entryNames[slot];
+            int current = entryParents[slot];
+            for (int depth = 0; current != MetadataSnapshot.ROOT && path != null; depth++) {
+                if (depth > entryNames.length || current < 0 || current >= entryNames.length
+                        || entryNames[current] == null) {
+                    path = null;
+                } else {
+                    path = entryNames[current] + "/" + path;
+                    current = entryParents[current];
+                }
+            }
+            paths[slot] = path;
         }
+        return paths;
+    }
 
-        return target;
+    private void notifyCommitted(MutationListener.Type type, String[] components, byte[] contents, boolean compressed) {
+        MutationListener listener = mutationListener;
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.committed(type, String.join("/", components), contents, compressed);
+        } catch (RuntimeException e) {
+            // The change is already on disk; a broken listener must not fail it
+            System.err.println("Mutation listener failed: " + e.getMessage());
+        }
+    }
+
+    //CHECK FILE (returns a detached FEntry view of the slot)
+    public FEntry checkFile(String fileName) throws Exception {
+        int slot = requireSlot(fileName);
+        FEntry entry = new FEntry(entryNames[slot], entryLogicalSizes[slot], entryFirstBlocks[slot]);
+        entry.setStoredSize(entrySizes[slot]);
+        entry.setCompressed((entryFlags[slot] & FLAG_COMPRESS) != 0);
+        return entry;
+    }
+
+    // Slot of the file in the inode arrays (caller holds the write lock, so the snapshot is current)
+    private int requireSlot(String fileName) throws Exception {
+        int slot = snapshot.resolve(pathComponents(fileName));
+        if (slot == MetadataSnapshot.MISSING || slot == MetadataSnapshot.ROOT) {
+            throw new Exception("ERROR: file " + fileName + " does not exist.");
+        }
+        if (snapshot.isDirectory(slot)) {
+            throw new Exception("ERROR: " + fileName + " is a directory.");
+        }
+        return slot;
     }
 
     /* 
@@ -537,7 +1352,21 @@ public class FileSystemManager {
         wrt.acquire();
     }
 
+    private boolean tryStartWrite() {
+        return wrt.tryAcquire();
+    }
+
     private void endWrite() {
+        if ((reclaimSeq & 1) != 0) {
+            reclaimSeq++; // reclaim done, optimistic readers may go again
+        }
         wrt.release();
     }
+
+    // Called under the write lock before zeroing / reusing blocks a published snapshot may reference
+    private void beginReclaim() {
+        if ((reclaimSeq & 1) == 0) {
+            reclaimSeq++;
+        }
+    }
 }
\ No newline at end of file
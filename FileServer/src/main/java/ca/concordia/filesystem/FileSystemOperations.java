@@ -0,0 +1,35 @@
+package ca.concordia.filesystem;
+
+// What the server needs from a file system: one volume or a set of shards.
+// File and directory names are paths like "tenant/reports/q1" ("" is the root).
+public interface FileSystemOperations {
+
+    void createFile(String fileName) throws Exception;
+
+    void createFile(String fileName, boolean compressed) throws Exception;
+
+    void writeFile(String fileName, byte[] contents) throws Exception;
+
+    byte[] readFile(String fileName) throws Exception;
+
+    String[] listFiles();
+
+    boolean fileExists(String fileName);
+
+    void deleteFile(String fileName) throws Exception;
+
+    void makeDirectory(String path) throws Exception;
+
+    void removeDirectory(String path) throws Exception;
+
+    // Names inside the directory; sub-directories end with '/'
+    String[] listDirectory(String path) throws Exception;
+
+    // Names starting with prefix, in name order, resuming after cursor (null = first page)
+    ListPage listDirectory(String path, String prefix, String cursor, int limit) throws Exception;
+
+    // Receives every committed create/write/delete/mkdir/rmdir (used for replication)
+    void setMutationListener(MutationListener listener);
+
+    void close() throws Exception;
+}
@@ -0,0 +1,61 @@
+package ca.concordia.filesystem;
+
+import java.util.Collections;
+import java.util.List;
+
+// One page of a directory listing; getNextCursor() is null on the last page
+public class ListPage {
+
+    public static class Item {
+        private final String name;
+        private final boolean directory;
+        private final int size;         // logical bytes
+        private final long lastModified; // epoch millis, 0 if unknown
+        private final boolean compressed; // file was created in compression mode
+
+        Item(String name, boolean directory, int size, long lastModified, boolean compressed) {
+            this.name = name;
+            this.directory = directory;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.compressed = compressed;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public boolean isCompressed() {
+            return compressed;
+        }
+    }
+
+    private final List<Item> items;
+    private final String nextCursor;
+
+    ListPage(List<Item> items, String nextCursor) {
+        this.items = Collections.unmodifiableList(items);
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Item> getItems() {
+        return items;
+    }
+
+    // Pass back as the cursor to get the following page
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,139 @@
+package ca.concordia.filesystem;
+
+import java.util.Arrays;
+
+/*
+    Small in-tree codec using the LZ4 block format:
+    sequences of [token][literal length+][literals][offset LE16][match length+].
+    Greedy compressor with a 4-byte hash table, no external dependency.
+*/
+final class Lz4Codec {
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;  // format rule: last 5 bytes are literals
+    private static final int MF_LIMIT = 12;      // format rule: last match starts 12 bytes before the end
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_LOG = 12;
+
+    private Lz4Codec() {
+    }
+
+    static byte[] compress(byte[] src) {
+        int n = src.length;
+        byte[] dst = new byte[n + n / 255 + 16];
+        int[] table = new int[1 << HASH_LOG];
+        Arrays.fill(table, -1);
+
+        int anchor = 0;
+        int ip = 0;
+        int op = 0;
+        while (ip < n - MF_LIMIT) {
+            int sequence = readInt(src, ip);
+            int h = (sequence * -1640531535) >>> (32 - HASH_LOG);
+            int ref = table[h];
+            table[h] = ip;
+            if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                ip++;
+                continue;
+            }
+
+            // Extend the match, keeping the last literals out of it
+            int matchLength = MIN_MATCH;
+            while (ip + matchLength < n - LAST_LITERALS && src[ref + matchLength] == src[ip + matchLength]) {
+                matchLength++;
+            }
+
+            op = writeLiterals(dst, op, src, anchor, ip - anchor, matchLength - MIN_MATCH);
+            dst[op++] = (byte) (ip - ref);
+            dst[op++] = (byte) ((ip - ref) >>> 8);
+            op = writeLength(dst, op, matchLength - MIN_MATCH);
+
+            ip += matchLength;
+            anchor = ip;
+        }
+
+        // Last sequence: literals only
+        op = writeLiterals(dst, op, src, anchor, n - anchor, 0);
+        return Arrays.copyOf(dst, op);
+    }
+
+    static byte[] decompress(byte[] src, int originalLength) {
+        byte[] dst = new byte[originalLength];
+        int ip = 0;
+        int op = 0;
+        try {
+            while (ip < src.length) {
+                int token = src[ip++] & 0xFF;
+
+                int literalLength = token >>> 4;
+                if (literalLength == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, ip, dst, op, literalLength);
+                ip += literalLength;
+                op += literalLength;
+                if (ip >= src.length) {
+                    break; // last sequence has no match
+                }
+
+                int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+                ip += 2;
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+
+                int ref = op - offset;
+                if (offset == 0 || ref < 0) {
+                    throw new IllegalArgumentException("Corrupt compressed data: bad offset " + offset + ".");
+                }
+                // Byte by byte: the match may overlap what it is copying
+                for (int i = 0; i < matchLength; i++) {
+                    dst[op++] = dst[ref++];
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Corrupt compressed data.");
+        }
+        if (op != originalLength) {
+            throw new IllegalArgumentException("Corrupt compressed data: expected " + originalLength
+                    + " bytes, got " + op + ".");
+        }
+        return dst;
+    }
+
+    // Token + literal run; the match part of the token is filled in by the caller's length
+    private static int writeLiterals(byte[] dst, int op, byte[] src, int from, int literalLength, int matchCode) {
+        dst[op++] = (byte) ((Math.min(literalLength, 15) << 4) | Math.min(matchCode, 15));
+        op = writeLength(dst, op, literalLength);
+        System.arraycopy(src, from, dst, op, literalLength);
+        return op + literalLength;
+    }
+
+    // Extra length bytes for values that do not fit in the 4-bit token field
+    private static int writeLength(byte[] dst, int op, int length) {
+        if (length < 15) {
+            return op;
+        }
+        length -= 15;
+        while (length >= 255) {
+            dst[op++] = (byte) 255;
+            length -= 255;
+        }
+        dst[op++] = (byte) length;
+        return op;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8) | ((b[i + 2] & 0xFF) << 16) | ((b[i + 3] & 0xFF) << 24);
+    }
+}
@@ -0,0 +1,348 @@
+package ca.concordia.filesystem;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/*
+    Immutable copy of the metadata (inode table + block map).
+    A new one is published by FileSystemManager after every committed
+    mutation, so readers can use it without taking any lock.
+    Also holds one sorted name index per directory, so a path lookup costs
+    one O(log n) probe per component and listing a directory only touches
+    the children on the requested page.
+    Tables are split in pages and a new snapshot only copies the pages the
+    mutation touched; directory indexes are persistent trees, so a change
+    copies one path per touched directory. The rest is shared with the
+    previous snapshot (nothing here is ever modified after publication).
+*/
+final class MetadataSnapshot {
+
+    static final int ROOT = -1;    // parent of top-level entries
+    static final int MISSING = -2; // path does not resolve
+
+    private static final int PAGE_BITS = 8; // 256 slots / blocks per page
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private final int slotCount;
+    private final int blockCount;
+    private final String[][] names;      // null = empty slot
+    private final short[][] sizes;
+    private final short[][] firstBlocks;
+    private final short[][] logicalSizes;
+    private final byte[][] flags;
+    private final int[][] parents;        // ROOT or slot of the parent directory
+    private final long[][] modified;      // epoch millis
+    private final int[][] nextBlocks;     // < 0 = end of chain / unused
+    private final boolean[][] usedBlocks; // copy of freeBlockList
+    private final NameIndex rootChildren;
+    private final NameIndex[][] children; // per directory slot (null = no children)
+
+    private MetadataSnapshot(MetadataSnapshot previous, BitSet dirtySlots, BitSet dirtyBlocks,
+                             String[] entryNames, short[] entrySizes, short[] entryFirstBlocks,
+                             short[] entryLogicalSizes, byte[] entryFlags, int[] entryParents,
+                             long[] entryModified, int[] nextBlock, boolean[] freeBlockList) {
+        this.slotCount = entryNames.length;
+        this.blockCount = nextBlock.length;
+        if (previous != null && (previous.slotCount != slotCount || previous.blockCount != blockCount)) {
+            previous = null;
+        }
+        BitSet slotPages = pagesOf(dirtySlots);
+        BitSet blockPages = pagesOf(dirtyBlocks);
+
+        this.names = paged(previous == null ? null : previous.names, entryNames, slotCount, slotPages,
+                String[][]::new, String[]::new);
+        this.sizes = paged(previous == null ? null : previous.sizes, entrySizes, slotCount, slotPages,
+                short[][]::new, short[]::new);
+        this.firstBlocks = paged(previous == null ? null : previous.firstBlocks, entryFirstBlocks, slotCount,
+                slotPages, short[][]::new, short[]::new);
+        this.logicalSizes = paged(previous == null ? null : previous.logicalSizes, entryLogicalSizes, slotCount,
+                slotPages, short[][]::new, short[]::new);
+        this.flags = paged(previous == null ? null : previous.flags, entryFlags, slotCount, slotPages,
+                byte[][]::new, byte[]::new);
+        this.parents = paged(previous == null ? null : previous.parents, entryParents, slotCount, slotPages,
+                int[][]::new, int[]::new);
+        this.modified = paged(previous == null ? null : previous.modified, entryModified, slotCount, slotPages,
+                long[][]::new, long[]::new);
+        this.nextBlocks = paged(previous == null ? null : previous.nextBlocks, nextBlock, blockCount, blockPages,
+                int[][]::new, int[]::new);
+        this.usedBlocks = paged(previous == null ? null : previous.usedBlocks, freeBlockList, blockCount,
+                blockPages, boolean[][]::new, boolean[]::new);
+
+        // Name order inside each directory, so pages can resume after a name
+        int pageCount = (slotCount + PAGE_SIZE - 1) >> PAGE_BITS;
+        Directories directories = (previous == null)
+                ? new Directories(NameIndex.EMPTY, new NameIndex[pageCount][])
+                : new Directories(previous.rootChildren, previous.children.clone());
+        if (previous == null) {
+            for (int i = 0; i < slotCount; i++) {
+                if (entryNames[i] != null) {
+                    directories.set(entryParents[i], directories.get(entryParents[i]).putIfAbsent(entryNames[i], i));
+                }
+            }
+        } else {
+            // Only the directories whose children changed get a new version
+            for (int slot = dirtySlots.nextSetBit(0); slot >= 0; slot = dirtySlots.nextSetBit(slot + 1)) {
+                String oldName = previous.name(slot);
+                int oldParent = previous.parent(slot);
+                if (java.util.Objects.equals(oldName, entryNames[slot]) && oldParent == entryParents[slot]) {
+                    continue;
+                }
+                if (oldName != null) {
+                    directories.set(oldParent, directories.get(oldParent).remove(oldName, slot));
+                }
+                if (entryNames[slot] != null) {
+                    directories.set(entryParents[slot],
+                            directories.get(entryParents[slot]).putIfAbsent(entryNames[slot], slot));
+                }
+            }
+        }
+        this.rootChildren = directories.root;
+        this.children = directories.pages;
+    }
+
+    // Directory indexes while a snapshot is being built; a page is copied before its first change
+    private static final class Directories {
+        private NameIndex root;
+        private final NameIndex[][] pages;
+        private final BitSet copied = new BitSet();
+
+        Directories(NameIndex root, NameIndex[][] pages) {
+            this.root = root;
+            this.pages = pages;
+        }
+
+        NameIndex get(int dir) {
+            return indexOf(root, pages, dir);
+        }
+
+        void set(int dir, NameIndex index) {
+            if (dir == ROOT) {
+                root = index;
+                return;
+            }
+            if (dir < 0 || dir >= pages.length << PAGE_BITS) {
+                return; // dangling parent, fsck moves the entry to the root
+            }
+            int page = dir >> PAGE_BITS;
+            if (!copied.get(page)) {
+                pages[page] = (pages[page] != null) ? pages[page].clone() : new NameIndex[PAGE_SIZE];
+                copied.set(page);
+            }
+            pages[page][dir & (PAGE_SIZE - 1)] = index.isEmpty() ? null : index;
+        }
+    }
+
+    private static NameIndex indexOf(NameIndex root, NameIndex[][] pages, int dir) {
+        if (dir == ROOT) {
+            return root;
+        }
+        if (dir < 0 || dir >= pages.length << PAGE_BITS) {
+            return NameIndex.EMPTY;
+        }
+        NameIndex[] page = pages[dir >> PAGE_BITS];
+        NameIndex index = (page != null) ? page[dir & (PAGE_SIZE - 1)] : null;
+        return (index != null) ? index : NameIndex.EMPTY;
+    }
+
+    // Copy the live tables (caller holds the write lock)
+    static MetadataSnapshot of(String[] entryNames, short[] entrySizes, short[] entryFirstBlocks,
+                               short[] entryLogicalSizes, byte[] entryFlags, int[] entryParents,
+                               long[] entryModified, int[] nextBlock, boolean[] freeBlockList) {
+        return of(null, new BitSet(), new BitSet(), entryNames, entrySizes, entryFirstBlocks, entryLogicalSizes,
+                entryFlags, entryParents, entryModified, nextBlock, freeBlockList);
+    }
+
+    // Next snapshot after previous: only the dirty slots / blocks are read again (previous null = full copy)
+    static MetadataSnapshot of(MetadataSnapshot previous, BitSet dirtySlots, BitSet dirtyBlocks,
+                               String[] entryNames, short[] entrySizes, short[] entryFirstBlocks,
+                               short[] entryLogicalSizes, byte[] entryFlags, int[] entryParents,
+                               long[] entryModified, int[] nextBlock, boolean[] freeBlockList) {
+        return new MetadataSnapshot(previous, dirtySlots, dirtyBlocks, entryNames, entrySizes, entryFirstBlocks,
+                entryLogicalSizes, entryFlags, entryParents, entryModified, nextBlock, freeBlockList);
+    }
+
+    private static BitSet pagesOf(BitSet dirty) {
+        BitSet pages = new BitSet();
+        for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+            pages.set(i >> PAGE_BITS);
+        }
+        return pages;
+    }
+
+    // Pages of previous that are clean are shared, the others are copied from the live array
+    private static <P> P[] paged(P[] previous, Object live, int length, BitSet dirtyPages,
+                                 IntFunction<P[]> newTable, IntFunction<P> newPage) {
+        int pageCount = (length + PAGE_SIZE - 1) >> PAGE_BITS;
+        P[] table = (previous != null) ? previous.clone() : newTable.apply(pageCount);
+        for (int page = 0; page < pageCount; page++) {
+            if (previous == null || dirtyPages.get(page)) {
+                int from = page << PAGE_BITS;
+                int pageLength = Math.min(PAGE_SIZE, length - from);
+                P copy = newPage.apply(pageLength);
+                System.arraycopy(live, from, copy, 0, pageLength);
+                table[page] = copy;
+            }
+        }
+        return table;
+    }
+
+    private NameIndex childrenOf(int dir) {
+        return indexOf(rootChildren, children, dir);
+    }
+
+    // Slot of the entry called name inside dir, or MISSING
+    int lookup(int dir, String name) {
+        int slot = childrenOf(dir).get(name);
+        return (slot != NameIndex.NONE) ? slot : MISSING;
+    }
+
+    // Slot for a split path (ROOT for the empty path), or MISSING
+    int resolve(String[] components) {
+        int current = ROOT;
+        for (String component : components) {
+            if (current != ROOT && !isDirectory(current)) {
+                return MISSING;
+            }
+            current = lookup(current, component);
+            if (current == MISSING) {
+                return MISSING;
+            }
+        }
+        return current;
+    }
+
+    // Up to limit children whose name starts with prefix, after the cursor name (null = from the start)
+    ListPage page(int dir, String prefix, String cursor, int limit) {
+        Iterator<NameIndex.Node> tail = (cursor != null && cursor.compareTo(prefix) >= 0)
+                ? childrenOf(dir).from(cursor, false)
+                : childrenOf(dir).from(prefix, true);
+
+        List<ListPage.Item> items = new ArrayList<>();
+        String nextCursor = null;
+        while (tail.hasNext()) {
+            NameIndex.Node child = tail.next();
+            if (!child.name.startsWith(prefix)) {
+                break;
+            }
+            if (items.size() == limit) {
+                nextCursor = items.get(items.size() - 1).getName();
+                break;
+            }
+            int slot = child.slot;
+            items.add(new ListPage.Item(child.name, isDirectory(slot), fileSize(slot), modified(slot),
+                    (flag(slot) & FileSystemManager.FLAG_COMPRESS) != 0));
+        }
+        return new ListPage(items, nextCursor);
+    }
+
+    // Names inside a directory; sub-directories end with '/'
+    String[] list(int dir) {
+        List<String> listing = new ArrayList<>();
+        for (Iterator<NameIndex.Node> it = childrenOf(dir).from(null, true); it.hasNext(); ) {
+            NameIndex.Node child = it.next();
+            listing.add(isDirectory(child.slot) ? child.name + "/" : child.name);
+        }
+        return listing.toArray(new String[0]);
+    }
+
+    boolean isDirectory(int slot) {
+        return slot == ROOT || (flag(slot) & FileSystemManager.FLAG_DIRECTORY) != 0;
+    }
+
+    // Size the client sees
+    int fileSize(int slot) {
+        return Short.toUnsignedInt(logicalSizes[slot >> PAGE_BITS][slot & (PAGE_SIZE - 1)]);
+    }
+
+    // Bytes on disk
+    int storedSize(int slot) {
+        return Short.toUnsignedInt(size(slot));
+    }
+
+    boolean isStoredCompressed(int slot) {
+        return (flag(slot) & FileSystemManager.FLAG_STORED_COMPRESSED) != 0;
+    }
+
+    // Blocks holding the file's data, in order (stops on a broken chain)
+    int[] blockChain(int slot) {
+        int blocksNeeded = (storedSize(slot) + FileSystemManager.BLOCK_SIZE - 1) / FileSystemManager.BLOCK_SIZE;
+        int[] chain = new int[blocksNeeded];
+        int count = 0;
+        int current = firstBlock(slot);
+        while (count < blocksNeeded && current >= 0 && current < blockCount) {
+            chain[count++] = current;
+            current = nextBlock(current);
+        }
+        return (count == blocksNeeded) ? chain : java.util.Arrays.copyOf(chain, count);
+    }
+
+    boolean isBlockUsed(int block) {
+        return usedBlocks[block >> PAGE_BITS][block & (PAGE_SIZE - 1)];
+    }
+
+    // Single entries, for the checker
+    int slotCount() {
+        return slotCount;
+    }
+
+    int blockCount() {
+        return blockCount;
+    }
+
+    String name(int slot) {
+        return names[slot >> PAGE_BITS][slot & (PAGE_SIZE - 1)];
+    }
+
+    short size(int slot) {
+        return sizes[slot >> PAGE_BITS][slot & (PAGE_SIZE - 1)];
+    }
+
+    short firstBlock(int slot) {
+        return firstBlocks[slot >> PAGE_BITS][slot & (PAGE_SIZE - 1)];
+    }
+
+    int parent(int slot) {
+        return parents[slot >> PAGE_BITS][slot & (PAGE_SIZE - 1)];
+    }
+
+    int nextBlock(int block) {
+        return nextBlocks[block >> PAGE_BITS][block & (PAGE_SIZE - 1)];
+    }
+
+    private byte flag(int slot) {
+        return flags[slot >> PAGE_BITS][slot & (PAGE_SIZE - 1)];
+    }
+
+    private long modified(int slot) {
+        return modified[slot >> PAGE_BITS][slot & (PAGE_SIZE - 1)];
+    }
+
+    // Flat copies of the tables (the checker repairs these)
+    short[] copySizes() {
+        return flatten(sizes, slotCount, short[]::new);
+    }
+
+    short[] copyFirstBlocks() {
+        return flatten(firstBlocks, slotCount, short[]::new);
+    }
+
+    int[] copyNextBlocks() {
+        return flatten(nextBlocks, blockCount, int[]::new);
+    }
+
+    int[] copyParents() {
+        return flatten(parents, slotCount, int[]::new);
+    }
+
+    private static <A> A flatten(Object[] pages, int length, IntFunction<A> newArray) {
+        A flat = newArray.apply(length);
+        for (int page = 0; page < pages.length; page++) {
+            int from = page << PAGE_BITS;
+            System.arraycopy(pages[page], 0, flat, from, Math.min(PAGE_SIZE, length - from));
+        }
+        return flat;
+    }
+}
@@ -0,0 +1,11 @@
+package ca.concordia.filesystem;
+
+// Told about every committed change, in commit order.
+// Called while the volume's write lock is still held, so keep it short (e.g. enqueue and return).
+public interface MutationListener {
+
+    enum Type { CREATE, WRITE, DELETE, MKDIR, RMDIR }
+
+    // path is normalised ("a/b/c"); contents is only set for WRITE, compressed only matters for CREATE
+    void committed(Type type, String path, byte[] contents, boolean compressed);
+}
@@ -0,0 +1,188 @@
+package ca.concordia.filesystem;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/*
+    Children of one directory: name -> slot, in name order.
+    Persistent AVL tree: an update copies only the O(log n) nodes on the
+    path to the change and shares everything else, so a new snapshot can
+    change a directory without copying it, and older snapshots keep
+    seeing their own version.
+*/
+final class NameIndex {
+
+    static final NameIndex EMPTY = new NameIndex(null);
+    static final int NONE = -1;
+
+    static final class Node {
+        final String name;
+        final int slot;
+        private final Node left;
+        private final Node right;
+        private final int height;
+
+        private Node(String name, int slot, Node left, Node right) {
+            this.name = name;
+            this.slot = slot;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+        }
+    }
+
+    private final Node root;
+
+    private NameIndex(Node root) {
+        this.root = root;
+    }
+
+    boolean isEmpty() {
+        return root == null;
+    }
+
+    // Slot of name, or NONE
+    int get(String name) {
+        Node node = root;
+        while (node != null) {
+            int cmp = name.compareTo(node.name);
+            if (cmp == 0) {
+                return node.slot;
+            }
+            node = (cmp < 0) ? node.left : node.right;
+        }
+        return NONE;
+    }
+
+    // Same index if name is already there
+    NameIndex putIfAbsent(String name, int slot) {
+        Node updated = insert(root, name, slot);
+        return (updated == root) ? this : new NameIndex(updated);
+    }
+
+    // Same index unless name maps to slot
+    NameIndex remove(String name, int slot) {
+        Node updated = delete(root, name, slot);
+        return (updated == root) ? this : new NameIndex(updated);
+    }
+
+    // Nodes in name order, starting at from (inclusive or not); null = from the first name
+    Iterator<Node> from(String from, boolean inclusive) {
+        Deque<Node> stack = new ArrayDeque<>();
+        Node node = root;
+        while (node != null) {
+            int cmp = (from == null) ? 1 : node.name.compareTo(from);
+            if (cmp > 0 || (cmp == 0 && inclusive)) {
+                stack.push(node);
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !stack.isEmpty();
+            }
+
+            @Override
+            public Node next() {
+                if (stack.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                Node next = stack.pop();
+                for (Node child = next.right; child != null; child = child.left) {
+                    stack.push(child);
+                }
+                return next;
+            }
+        };
+    }
+
+    private static int height(Node node) {
+        return (node == null) ? 0 : node.height;
+    }
+
+    private static Node insert(Node node, String name, int slot) {
+        if (node == null) {
+            return new Node(name, slot, null, null);
+        }
+        int cmp = name.compareTo(node.name);
+        if (cmp == 0) {
+            return node;
+        }
+        if (cmp < 0) {
+            Node left = insert(node.left, name, slot);
+            return (left == node.left) ? node : balance(node.name, node.slot, left, node.right);
+        }
+        Node right = insert(node.right, name, slot);
+        return (right == node.right) ? node : balance(node.name, node.slot, node.left, right);
+    }
+
+    private static Node delete(Node node, String name, int slot) {
+        if (node == null) {
+            return null;
+        }
+        int cmp = name.compareTo(node.name);
+        if (cmp < 0) {
+            Node left = delete(node.left, name, slot);
+            return (left == node.left) ? node : balance(node.name, node.slot, left, node.right);
+        }
+        if (cmp > 0) {
+            Node right = delete(node.right, name, slot);
+            return (right == node.right) ? node : balance(node.name, node.slot, node.left, right);
+        }
+        if (node.slot != slot) {
+            return node;
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        // Two children: the smallest name on the right takes this place
+        Node successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return balance(successor.name, successor.slot, node.left, deleteMin(node.right));
+    }
+
+    private static Node deleteMin(Node node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return balance(node.name, node.slot, deleteMin(node.left), node.right);
+    }
+
+    // New node with these children, rotated back within AVL balance
+    private static Node balance(String name, int slot, Node left, Node right) {
+        int diff = height(left) - height(right);
+        if (diff > 1) {
+            if (height(left.left) < height(left.right)) {
+                left = rotateLeft(left);
+            }
+            return new Node(left.name, left.slot, left.left, new Node(name, slot, left.right, right));
+        }
+        if (diff < -1) {
+            if (height(right.right) < height(right.left)) {
+                right = rotateRight(right);
+            }
+            return new Node(right.name, right.slot, new Node(name, slot, left, right.left), right.right);
+        }
+        return new Node(name, slot, left, right);
+    }
+
+    private static Node rotateLeft(Node node) {
+        Node up = node.right;
+        return new Node(up.name, up.slot, new Node(node.name, node.slot, node.left, up.left), up.right);
+    }
+
+    private static Node rotateRight(Node node) {
+        Node up = node.left;
+        return new Node(up.name, up.slot, up.left, new Node(node.name, node.slot, up.right, node.right));
+    }
+}
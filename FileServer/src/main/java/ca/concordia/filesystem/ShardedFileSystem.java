@@ -0,0 +1,191 @@
+package ca.concordia.filesystem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+    Filenames hash-partitioned across N independent volumes.
+    Each shard is its own FileSystemManager (own disk image, own locks),
+    so requests for different shards never wait on each other.
+    The hash uses the first path component, so a whole top-level directory
+    (one tenant) lives on one shard; only the root listing spans shards.
+*/
+public class ShardedFileSystem implements FileSystemOperations {
+
+    private final List<FileSystemManager> shards;
+
+    // One manager per image path (put images on different disks to spread the I/O).
+    // Each image remembers its shard index and count, a different layout is refused.
+    public ShardedFileSystem(List<String> imagePaths, int totalSize, boolean deduplicate) {
+        if (imagePaths.isEmpty()) {
+            throw new IllegalArgumentException("At least one disk image is needed.");
+        }
+        List<FileSystemManager> managers = new ArrayList<>();
+        try {
+            for (int i = 0; i < imagePaths.size(); i++) {
+                FileSystemManager manager = new FileSystemManager(imagePaths.get(i), totalSize, deduplicate);
+                managers.add(manager);
+                manager.bindShard(i, imagePaths.size());
+            }
+        } catch (Exception e) {
+            // Release the images already opened, so a retry in this JVM can open them again
+            for (FileSystemManager manager : managers) {
+                try {
+                    manager.close();
+                } catch (Exception ignored) {}
+            }
+            throw (e instanceof RuntimeException) ? (RuntimeException) e : new IllegalStateException(e.getMessage(), e);
+        }
+        this.shards = Collections.unmodifiableList(managers);
+    }
+
+    // "filesystem.dat" with 3 shards -> filesystem-0.dat, filesystem-1.dat, filesystem-2.dat
+    // Refuses a count that would leave images from another layout unused on disk.
+    public static List<String> imagePaths(String fileSystemName, int shardCount) {
+        List<String> paths = new ArrayList<>();
+        if (shardCount <= 1) {
+            paths.add(fileSystemName);
+            requireAbsent(shardPath(fileSystemName, 0), fileSystemName, shardCount);
+            return paths;
+        }
+        for (int i = 0; i < shardCount; i++) {
+            paths.add(shardPath(fileSystemName, i));
+        }
+        requireAbsent(fileSystemName, fileSystemName, shardCount);
+        requireAbsent(shardPath(fileSystemName, shardCount), fileSystemName, shardCount);
+        return paths;
+    }
+
+    private static String shardPath(String fileSystemName, int index) {
+        int dot = fileSystemName.lastIndexOf('.');
+        String base = (dot > 0) ? fileSystemName.substring(0, dot) : fileSystemName;
+        String extension = (dot > 0) ? fileSystemName.substring(dot) : "";
+        return base + "-" + index + extension;
+    }
+
+    private static void requireAbsent(String otherImage, String fileSystemName, int shardCount) {
+        if (new java.io.File(otherImage).exists()) {
+            throw new IllegalStateException("Disk image " + otherImage + " belongs to a different shard count than "
+                    + shardCount + " for " + fileSystemName + ".");
+        }
+    }
+
+    public List<FileSystemManager> getShards() {
+        return shards;
+    }
+
+    FileSystemManager shardFor(String fileName) throws Exception {
+        String[] components = FileSystemManager.pathComponents(fileName);
+        String key = (components.length > 0) ? components[0] : "";
+        return shards.get(Math.floorMod(key.hashCode(), shards.size()));
+    }
+
+    @Override
+    public void createFile(String fileName) throws Exception {
+        shardFor(fileName).createFile(fileName);
+    }
+
+    @Override
+    public void createFile(String fileName, boolean compressed) throws Exception {
+        shardFor(fileName).createFile(fileName, compressed);
+    }
+
+    @Override
+    public void writeFile(String fileName, byte[] contents) throws Exception {
+        shardFor(fileName).writeFile(fileName, contents);
+    }
+
+    @Override
+    public byte[] readFile(String fileName) throws Exception {
+        return shardFor(fileName).readFile(fileName);
+    }
+
+    @Override
+    public String[] listFiles() {
+        List<String> files = new ArrayList<>();
+        for (FileSystemManager shard : shards) {
+            Collections.addAll(files, shard.listFiles());
+        }
+        return files.toArray(new String[0]);
+    }
+
+    @Override
+    public boolean fileExists(String fileName) {
+        try {
+            return shardFor(fileName).fileExists(fileName);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void deleteFile(String fileName) throws Exception {
+        shardFor(fileName).deleteFile(fileName);
+    }
+
+    @Override
+    public void makeDirectory(String path) throws Exception {
+        shardFor(path).makeDirectory(path);
+    }
+
+    @Override
+    public void removeDirectory(String path) throws Exception {
+        shardFor(path).removeDirectory(path);
+    }
+
+    @Override
+    public String[] listDirectory(String path) throws Exception {
+        if (FileSystemManager.pathComponents(path).length == 0) {
+            return listFiles();
+        }
+        return shardFor(path).listDirectory(path);
+    }
+
+    @Override
+    public ListPage listDirectory(String path, String prefix, String cursor, int limit) throws Exception {
+        if (FileSystemManager.pathComponents(path).length > 0) {
+            return shardFor(path).listDirectory(path, prefix, cursor, limit);
+        }
+
+        // Root: a top-level name always maps to the same shard, so merge one page from each
+        List<ListPage.Item> merged = new ArrayList<>();
+        boolean more = false;
+        for (FileSystemManager shard : shards) {
+            ListPage page = shard.listDirectory(path, prefix, cursor, limit);
+            merged.addAll(page.getItems());
+            more |= page.getNextCursor() != null;
+        }
+        merged.sort(Comparator.comparing(ListPage.Item::getName));
+        if (merged.size() > limit) {
+            more = true;
+            merged = new ArrayList<>(merged.subList(0, limit));
+        }
+        String nextCursor = (more && !merged.isEmpty()) ? merged.get(merged.size() - 1).getName() : null;
+        return new ListPage(merged, nextCursor);
+    }
+
+    // Every shard reports to the same listener (ordering is per shard, i.e. per top-level directory)
+    @Override
+    public void setMutationListener(MutationListener listener) {
+        for (FileSystemManager shard : shards) {
+            shard.setMutationListener(listener);
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        Exception failure = null;
+        for (FileSystemManager shard : shards) {
+            try {
+                shard.close();
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
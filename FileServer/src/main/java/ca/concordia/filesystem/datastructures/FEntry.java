@@ -5,6 +5,8 @@ public class FEntry {
     private String filename;
     private short filesize;
     private short firstBlock; // Pointers to data blocks
+    private short storedSize; // Bytes on disk (smaller than filesize when compressed)
+    private boolean compressed;
 
     public FEntry(String filename, short filesize, short firstblock) throws IllegalArgumentException{
         //Check filename is max 11 bytes long
@@ -14,6 +16,7 @@ public class FEntry {
         this.filename = filename;
         this.filesize = filesize;
         this.firstBlock = firstblock;
+        this.storedSize = filesize;
     }
 
     // Getters and Setters
@@ -46,4 +49,20 @@ public class FEntry {
     public void setFirstBlock(short firstBlock) {
         this.firstBlock = firstBlock;
     }
+
+    public short getStoredSize() {
+        return storedSize;
+    }
+
+    public void setStoredSize(short storedSize) {
+        this.storedSize = storedSize;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
 }
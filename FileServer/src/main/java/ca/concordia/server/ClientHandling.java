@@ -4,18 +4,80 @@ import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.time.Instant;
 
-import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.FileSystemOperations;
+import ca.concordia.filesystem.ListPage;
 
 public class ClientHandling implements Runnable{
 
     private Socket clientSocket;
-    private FileSystemManager fsManager;
+    private FileSystemOperations fsManager;
+    private FileServer server; // null = always writable
+    private static final int DEFAULT_PAGE_SIZE = 100;
 
     //constructor
-    public ClientHandling (Socket cSocket, FileSystemManager fsManager){
+    public ClientHandling (Socket cSocket, FileSystemOperations fsManager){
+        this(cSocket, fsManager, null);
+    }
+
+    public ClientHandling (Socket cSocket, FileSystemOperations fsManager, FileServer server){
         this.clientSocket = cSocket;
         this.fsManager = fsManager;
+        this.server = server;
+    }
+
+    // Replicas only serve reads until promoted
+    private void requireWritable() throws Exception {
+        if (server != null && server.isReadOnly()) {
+            throw new Exception("read-only replica, send writes to the leader.");
+        }
+    }
+
+    // One page of LIST, on a single line
+    private String list(String request) throws Exception {
+        String path = "";
+        String prefix = "";
+        String cursor = null;
+        int limit = DEFAULT_PAGE_SIZE;
+        boolean details = false;
+
+        String[] tokens = request.trim().split("\\s+");
+        for (int i = 1; i < tokens.length; i++) {
+            String token = tokens[i];
+            if (token.startsWith("prefix=")) {
+                prefix = token.substring("prefix=".length());
+            } else if (token.startsWith("cursor=")) {
+                cursor = token.substring("cursor=".length());
+            } else if (token.startsWith("limit=")) {
+                limit = Integer.parseInt(token.substring("limit=".length()));
+            } else if (token.equalsIgnoreCase("long")) {
+                details = true;
+            } else {
+                path = token;
+            }
+        }
+
+        ListPage page = fsManager.listDirectory(path, prefix, cursor, limit);
+        if (page.getItems().isEmpty()){
+            return "No files found.";
+        }
+
+        StringBuilder line = new StringBuilder("Current files available: ");
+        for (int i = 0; i < page.getItems().size(); i++) {
+            ListPage.Item item = page.getItems().get(i);
+            if (i > 0) line.append(", ");
+            line.append(item.getName()).append(item.isDirectory() ? "/" : "");
+            if (details) {
+                String modified = (item.getLastModified() > 0)
+                        ? Instant.ofEpochMilli(item.getLastModified()).toString() : "unknown";
+                line.append(" (").append(item.getSize()).append(" bytes, ").append(modified).append(")");
+            }
+        }
+        if (page.getNextCursor() != null) {
+            line.append(" [more: cursor=").append(page.getNextCursor()).append("]");
+        }
+        return line.toString();
     }
 
     public void run(){
@@ -42,11 +104,15 @@ public class ClientHandling implements Runnable{
                 try {
                     switch (command) {
                         case "CREATE":
-                            fsManager.createFile(parts[1]);
+                            // CREATE <file> [COMPRESSED]
+                            requireWritable();
+                            boolean compressed = parts.length > 2 && parts[2].trim().equalsIgnoreCase("COMPRESSED");
+                            fsManager.createFile(parts[1], compressed);
                             writer.println("SUCCESS: File '" + parts[1] + "' created.");
                             break;
 
                         case "WRITE":
+                            requireWritable();
                             fsManager.writeFile(parts[1], parts[2].getBytes());
                             writer.println("SUCCESS: File '" + parts[1] + "' written to.");
                             break;
@@ -57,20 +123,39 @@ public class ClientHandling implements Runnable{
                         break;
                         
                         case "LIST":
+                            // LIST [directory] [prefix=<p>] [cursor=<name>] [limit=<n>] [long]
                             // writer.println("Checking for available files...");
-                            String [] filesAvailable = fsManager.listFiles();
-                            if (filesAvailable == null || filesAvailable.length == 0){
-                                    writer.println("No files found.");
-                            }else{
-                                writer.println("Current files available: " + String.join(", ",filesAvailable));
-                            }
+                            writer.println(list(request));
                         break;
 
+                        case "MKDIR":
+                            requireWritable();
+                            fsManager.makeDirectory(parts[1]);
+                            writer.println("SUCCESS: Directory '" + parts[1] + "' created.");
+                            break;
+
+                        case "RMDIR":
+                            requireWritable();
+                            fsManager.removeDirectory(parts[1]);
+                            writer.println("SUCCESS: Directory '" + parts[1] + "' deleted.");
+                            break;
+
                         case "DELETE":
+                            requireWritable();
                             fsManager.deleteFile(parts[1]);
                             writer.println("SUCCESS: File " + parts[1]+ " deleted");
                             break;
 
+                        case "PROMOTE":
+                            // Fail over: this replica stops following and takes writes
+                            if (server == null || !server.isReadOnly()) {
+                                writer.println("ERROR: not a replica.");
+                                break;
+                            }
+                            server.promote();
+                            writer.println("SUCCESS: Promoted to leader.");
+                            break;
+
                         case "QUIT":
                             writer.println("SUCCESS: Disconnecting.");
                             return;
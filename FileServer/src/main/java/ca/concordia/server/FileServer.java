@@ -1,38 +1,102 @@
 package ca.concordia.server;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import ca.concordia.filesystem.BlockCompactor;
+import ca.concordia.filesystem.FileSystemChecker;
 import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.FileSystemOperations;
+import ca.concordia.filesystem.ShardedFileSystem;
 
 // Server class
 public class FileServer {
 
-    private FileSystemManager fsManager;
+    private FileSystemOperations fsManager;
     private int port;
     private ExecutorService threadPool;
+    private ReplicationFollower follower; // set while this server is a replica
+    private volatile boolean readOnly = false;
 
     public FileServer(int port, String fileSystemName, int totalSize){
-        // Initialize the FileSystemManager
-        // FileSystemManager fsManager = new FileSystemManager(fileSystemName,
-        //         10*128 );
-        this.fsManager = new FileSystemManager(fileSystemName, 10*128 );
-        // this.fsManager = fsManager;
+        this(port, fileSystemName, totalSize, false, 1);
+    }
+
+    public FileServer(int port, String fileSystemName, int totalSize, boolean deduplicate, int shards){
+        this(port, fileSystemName, totalSize, deduplicate, shards, false);
+    }
+
+    // shards > 1 spreads files over fileSystemName-0.dat ... fileSystemName-(shards-1).dat
+    // onlineRepair lets the background fsck fix what it finds (otherwise it only reports)
+    public FileServer(int port, String fileSystemName, int totalSize, boolean deduplicate, int shards,
+                      boolean onlineRepair){
+        this(port, ShardedFileSystem.imagePaths(fileSystemName, shards), totalSize, deduplicate, onlineRepair);
+    }
+
+    // One shard per image path, in this order (e.g. images on different disks)
+    public FileServer(int port, List<String> imagePaths, int totalSize, boolean deduplicate, boolean onlineRepair){
+        // Initialize the FileSystemManager (one per shard)
+        ShardedFileSystem fileSystem = new ShardedFileSystem(imagePaths, 10*128, deduplicate);
+        this.fsManager = fileSystem;
         this.port = port;
         this.threadPool = Executors.newFixedThreadPool(100);
+
+        for (FileSystemManager shard : fileSystem.getShards()) {
+            // Background consistency check
+            FileSystemChecker.scheduleOnline(shard, 10, onlineRepair);
+
+            // Background defragmentation, one file per step
+            new BlockCompactor(shard, 50, 30_000).start();
+        }
+
+        // Clean shutdown lets the next start skip the free-block rebuild
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                fsManager.close();
+            } catch (Exception e) {
+                System.err.println("Could not close file system: " + e.getMessage());
+            }
+        }));
+    }
+
+    // Leader: stream every committed change to followers connecting on replicationPort
+    public void publishTo(int replicationPort) {
+        new ReplicationPublisher(fsManager, replicationPort).start();
+    }
+
+    // Replica: copy the leader's tree and serve reads only, until promote()
+    public synchronized void followLeader(String leaderHost, int leaderPort) {
+        follower = new ReplicationFollower(fsManager, leaderHost, leaderPort);
+        readOnly = true;
+        follower.start();
+    }
+
+    // Fail over: stop following and accept writes
+    public synchronized void promote() {
+        if (follower != null) {
+            follower.stop();
+            follower = null;
+        }
+        readOnly = false;
+        System.out.println("Promoted to leader.");
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
     }
 
     public void start(){
-        try (ServerSocket serverSocket = new ServerSocket(12345)) {
-            System.out.println("Server started. Listening on port 12345...");
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            System.out.println("Server started. Listening on port " + port + "...");
 
             while (true) {
                 Socket clientSocket = serverSocket.accept();
-                threadPool.submit(new ClientHandling(clientSocket, fsManager));
+                threadPool.submit(new ClientHandling(clientSocket, fsManager, this));
                 System.out.println("Handling client: " + clientSocket);
 
-                ClientHandling cHandling = new ClientHandling(clientSocket, fsManager);
+                ClientHandling cHandling = new ClientHandling(clientSocket, fsManager, this);
                 Thread thread = new Thread (cHandling);
                 thread.start();
 
@@ -0,0 +1,209 @@
+package ca.concordia.server;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import ca.concordia.filesystem.FileSystemOperations;
+import ca.concordia.filesystem.ListPage;
+import ca.concordia.filesystem.MutationListener;
+
+/*
+    Follower side of replication: keeps a local copy of the leader's tree.
+    Connects to the leader's replication port, applies the snapshot, then
+    every streamed record in order. Records are applied idempotently
+    (create if missing, write creates too, delete/rmdir only if present), so
+    overlapping snapshot and stream, or a reconnect, always converge.
+    After a snapshot, local entries the leader no longer has are removed.
+*/
+public class ReplicationFollower implements Runnable {
+
+    private static final long RECONNECT_DELAY_MILLIS = 2000;
+
+    private final FileSystemOperations fsManager;
+    private final String leaderHost;
+    private final int leaderPort;
+    private volatile boolean running = true;
+    private volatile Socket socket;
+    private long lastSequence = 0;
+
+    public ReplicationFollower(FileSystemOperations fsManager, String leaderHost, int leaderPort) {
+        this.fsManager = fsManager;
+        this.leaderHost = leaderHost;
+        this.leaderPort = leaderPort;
+    }
+
+    public void start() {
+        Thread thread = new Thread(this, "replication-follower");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Stop following (e.g. when promoted to leader)
+    public void stop() {
+        running = false;
+        try {
+            Socket current = socket;
+            if (current != null) {
+                current.close();
+            }
+        } catch (Exception ignored) {}
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try (Socket leader = new Socket(leaderHost, leaderPort);
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(leader.getInputStream(),
+                         StandardCharsets.UTF_8))) {
+                socket = leader;
+                System.out.println("Replication: following " + leaderHost + ":" + leaderPort);
+                follow(reader);
+                if (running) {
+                    System.out.println("Replication: leader closed the stream, reconnecting...");
+                }
+            } catch (Exception e) {
+                if (running) {
+                    System.out.println("Replication: lost leader " + leaderHost + ":" + leaderPort + " ("
+                            + e.getMessage() + "), retrying...");
+                }
+            }
+            socket = null;
+            try {
+                Thread.sleep(RECONNECT_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void follow(BufferedReader reader) throws Exception {
+        Set<String> inSnapshot = null; // paths sent during the current snapshot
+        String line;
+        while (running && (line = reader.readLine()) != null) {
+            if (line.equals("SNAPSHOT BEGIN")) {
+                inSnapshot = new HashSet<>();
+                lastSequence = 0; // a restarted leader numbers from 1 again
+                continue;
+            }
+            if (line.equals("SNAPSHOT END")) {
+                removeMissing("", inSnapshot);
+                System.out.println("Replication: snapshot applied (" + inSnapshot.size() + " entries).");
+                inSnapshot = null;
+                continue;
+            }
+
+            // <seq> <type> <path> [argument]
+            String[] parts = line.split(" ", 4);
+            long seq = Long.parseLong(parts[0]);
+            MutationListener.Type type = MutationListener.Type.valueOf(parts[1]);
+            String path = parts[2];
+            String argument = (parts.length > 3) ? parts[3] : "";
+            if (seq > 0 && seq <= lastSequence) {
+                System.out.println("Replication: record " + seq + " out of order (last " + lastSequence + ").");
+            }
+            try {
+                apply(type, path, argument);
+            } catch (Exception e) {
+                System.err.println("Replication: could not apply '" + parts[0] + " " + type + " " + path + "': "
+                        + e.getMessage());
+            }
+            if (inSnapshot != null) {
+                inSnapshot.add(path);
+            }
+            if (seq > 0) {
+                lastSequence = seq;
+            }
+        }
+    }
+
+    private void apply(MutationListener.Type type, String path, String argument) throws Exception {
+        switch (type) {
+            case MKDIR:
+                makeDirectories(path);
+                break;
+
+            case RMDIR:
+                if (isDirectory(path)) {
+                    fsManager.removeDirectory(path);
+                }
+                break;
+
+            case CREATE:
+                makeDirectories(parentOf(path));
+                if (!fsManager.fileExists(path)) {
+                    fsManager.createFile(path, argument.equals("1"));
+                }
+                break;
+
+            case WRITE:
+                makeDirectories(parentOf(path));
+                if (!fsManager.fileExists(path)) {
+                    fsManager.createFile(path);
+                }
+                fsManager.writeFile(path, Base64.getDecoder().decode(argument));
+                break;
+
+            case DELETE:
+                if (fsManager.fileExists(path)) {
+                    fsManager.deleteFile(path);
+                }
+                break;
+        }
+    }
+
+    // Everything under directory that the snapshot did not mention, children first
+    private void removeMissing(String directory, Set<String> keep) throws Exception {
+        for (ListPage.Item item : listAll(directory)) {
+            String path = directory.isEmpty() ? item.getName() : directory + "/" + item.getName();
+            if (item.isDirectory()) {
+                removeMissing(path, keep);
+                if (!keep.contains(path)) {
+                    fsManager.removeDirectory(path);
+                }
+            } else if (!keep.contains(path)) {
+                fsManager.deleteFile(path);
+            }
+        }
+    }
+
+    private List<ListPage.Item> listAll(String directory) throws Exception {
+        List<ListPage.Item> items = new ArrayList<>();
+        String cursor = null;
+        do {
+            ListPage page = fsManager.listDirectory(directory, "", cursor, 100);
+            items.addAll(page.getItems());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        return items;
+    }
+
+    // Like mkdir -p
+    private void makeDirectories(String path) throws Exception {
+        if (path.isEmpty() || isDirectory(path)) {
+            return;
+        }
+        makeDirectories(parentOf(path));
+        fsManager.makeDirectory(path);
+    }
+
+    private boolean isDirectory(String path) {
+        try {
+            fsManager.listDirectory(path);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static String parentOf(String path) {
+        int slash = path.lastIndexOf('/');
+        return (slash < 0) ? "" : path.substring(0, slash);
+    }
+}
@@ -0,0 +1,160 @@
+package ca.concordia.server;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import ca.concordia.filesystem.FileSystemOperations;
+import ca.concordia.filesystem.ListPage;
+import ca.concordia.filesystem.MutationListener;
+
+/*
+    Leader side of replication.
+    Followers connect to the replication port and get one line per record:
+        SNAPSHOT BEGIN / SNAPSHOT END      around a copy of the whole tree
+        <seq> MKDIR|RMDIR|DELETE <path>
+        <seq> CREATE <path> <0|1>          1 = compressed
+        <seq> WRITE <path> <base64 contents>
+    A new follower is registered before the snapshot is taken, so nothing
+    committed meanwhile is lost; the follower applies records idempotently,
+    so changes seen both in the snapshot and in the stream are harmless.
+*/
+public class ReplicationPublisher implements MutationListener {
+
+    private static final int SNAPSHOT_PAGE = 100;
+    private static final int MAX_PENDING = 10_000; // a follower further behind is dropped and re-syncs
+    private static final String DISCONNECT = "";   // queue marker, never a real record
+
+    private final FileSystemOperations fsManager;
+    private final int port;
+    private final Set<BlockingQueue<String>> followers = ConcurrentHashMap.newKeySet();
+    private long sequence = 0;
+
+    public ReplicationPublisher(FileSystemOperations fsManager, int port) {
+        this.fsManager = fsManager;
+        this.port = port;
+    }
+
+    // Accept followers in the background
+    public void start() {
+        fsManager.setMutationListener(this);
+        Thread acceptor = new Thread(() -> {
+            try (ServerSocket serverSocket = new ServerSocket(port)) {
+                System.out.println("Replication: waiting for followers on port " + port + "...");
+                while (true) {
+                    Socket followerSocket = serverSocket.accept();
+                    System.out.println("Replication: follower connected " + followerSocket);
+                    Thread sender = new Thread(() -> serve(followerSocket), "replication-sender");
+                    sender.setDaemon(true);
+                    sender.start();
+                }
+            } catch (Exception e) {
+                System.err.println("Replication: could not listen on port " + port + ": " + e.getMessage());
+            }
+        }, "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    // Called under a shard's write lock; synchronized so every follower sees one global order
+    @Override
+    public synchronized void committed(Type type, String path, byte[] contents, boolean compressed) {
+        long seq = ++sequence;
+        String record = seq + " " + record(type, path, contents, compressed);
+        for (BlockingQueue<String> queue : followers) {
+            if (!queue.offer(record)) {
+                // Too far behind: disconnect it, it gets a fresh snapshot when it reconnects
+                followers.remove(queue);
+                queue.clear();
+                queue.offer(DISCONNECT);
+            }
+        }
+    }
+
+    private void serve(Socket followerSocket) {
+        BlockingQueue<String> queue = new LinkedBlockingQueue<>(MAX_PENDING);
+        followers.add(queue);
+        try (Socket socket = followerSocket;
+             Writer writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(),
+                     StandardCharsets.UTF_8))) {
+            sendSnapshot(writer);
+            writer.flush();
+
+            while (true) {
+                String record = queue.take();
+                if (record.equals(DISCONNECT)) {
+                    System.out.println("Replication: follower " + socket + " fell behind, disconnecting.");
+                    return;
+                }
+                writer.write(record);
+                writer.write('\n');
+                // Batch whatever is already queued into one flush
+                if (queue.isEmpty()) {
+                    writer.flush();
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("Replication: follower " + followerSocket + " disconnected: " + e.getMessage());
+        } finally {
+            followers.remove(queue);
+        }
+    }
+
+    // Whole tree, parents before children
+    private void sendSnapshot(Writer writer) throws Exception {
+        writer.write("SNAPSHOT BEGIN\n");
+        Deque<String> directories = new ArrayDeque<>();
+        directories.add("");
+        while (!directories.isEmpty()) {
+            String directory = directories.poll();
+            String cursor = null;
+            do {
+                ListPage page;
+                try {
+                    page = fsManager.listDirectory(directory, "", cursor, SNAPSHOT_PAGE);
+                } catch (Exception e) {
+                    break; // removed while we were copying, the stream has the RMDIR
+                }
+                for (ListPage.Item item : page.getItems()) {
+                    String path = directory.isEmpty() ? item.getName() : directory + "/" + item.getName();
+                    if (item.isDirectory()) {
+                        writer.write("0 " + record(Type.MKDIR, path, null, false) + "\n");
+                        directories.add(path);
+                        continue;
+                    }
+                    byte[] contents;
+                    try {
+                        contents = fsManager.readFile(path);
+                    } catch (Exception e) {
+                        continue; // deleted meanwhile
+                    }
+                    writer.write("0 " + record(Type.CREATE, path, null, item.isCompressed()) + "\n");
+                    writer.write("0 " + record(Type.WRITE, path, contents, false) + "\n");
+                }
+                cursor = page.getNextCursor();
+            } while (cursor != null);
+        }
+        writer.write("SNAPSHOT END\n");
+    }
+
+    private static String record(Type type, String path, byte[] contents, boolean compressed) {
+        switch (type) {
+            case CREATE:
+                return type + " " + path + " " + (compressed ? "1" : "0");
+            case WRITE:
+                return type + " " + path + " " + Base64.getEncoder().encodeToString(contents);
+            default:
+                return type + " " + path;
+        }
+    }
+}
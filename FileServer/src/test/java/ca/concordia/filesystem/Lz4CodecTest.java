@@ -0,0 +1,94 @@
+package ca.concordia.filesystem;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class Lz4CodecTest {
+
+    private static void assertRoundTrip(byte[] original) {
+        byte[] packed = Lz4Codec.compress(original);
+        assertArrayEquals(original, Lz4Codec.decompress(packed, original.length), "length " + original.length);
+    }
+
+    @Test
+    void emptyInput() {
+        assertRoundTrip(new byte[0]);
+    }
+
+    // Below MF_LIMIT + 1 the compressor never looks for a match: literals only
+    @Test
+    void inputsShorterThanThirteenBytes() {
+        for (int length = 1; length < 13; length++) {
+            byte[] data = new byte[length];
+            Arrays.fill(data, (byte) 'a');
+            assertRoundTrip(data);
+        }
+    }
+
+    // 15 needs the first extra length byte, 270 = 15 + 255 a second one, 530 a third
+    @Test
+    void runsAtLengthFieldBoundaries() {
+        for (int run : new int[] {14, 15, 16, 269, 270, 271, 529, 530, 531}) {
+            byte[] repeated = new byte[run];
+            Arrays.fill(repeated, (byte) 'x');
+            assertRoundTrip(repeated);
+
+            // Same length as literals: random bytes do not compress
+            byte[] literals = new byte[run];
+            new Random(run).nextBytes(literals);
+            assertRoundTrip(literals);
+
+            // Literal run followed by a match
+            byte[] mixed = Arrays.copyOf(literals, run * 2);
+            Arrays.fill(mixed, run, mixed.length, (byte) 'y');
+            assertRoundTrip(mixed);
+        }
+    }
+
+    @Test
+    void repetitiveDataShrinks() {
+        byte[] text = "abcdefgh".repeat(100).getBytes();
+        assertTrue(Lz4Codec.compress(text).length < text.length);
+        assertRoundTrip(text);
+    }
+
+    @Test
+    void randomData() {
+        Random random = new Random(7);
+        for (int i = 0; i < 500; i++) {
+            byte[] data = new byte[random.nextInt(2000)];
+            if (random.nextBoolean()) {
+                random.nextBytes(data);
+            } else {
+                // Small alphabet: lots of short, overlapping matches
+                for (int j = 0; j < data.length; j++) {
+                    data[j] = (byte) ('a' + random.nextInt(3));
+                }
+            }
+            assertRoundTrip(data);
+        }
+    }
+
+    @Test
+    void corruptInputIsRejected() {
+        byte[] packed = Lz4Codec.compress("abcdefgh".repeat(50).getBytes());
+
+        // Cut short
+        assertThrows(IllegalArgumentException.class,
+                () -> Lz4Codec.decompress(Arrays.copyOf(packed, packed.length - 3), 400));
+        // Wrong original length
+        assertThrows(IllegalArgumentException.class, () -> Lz4Codec.decompress(packed, 399));
+        // Match offset pointing before the start of the output
+        byte[] badOffset = {0x10, 'a', (byte) 0xFF, 0x00};
+        assertThrows(IllegalArgumentException.class, () -> Lz4Codec.decompress(badOffset, 5));
+        // Literal length past the end of the input
+        byte[] badLength = {(byte) 0xF0, (byte) 0xFF, 0x10};
+        assertThrows(IllegalArgumentException.class, () -> Lz4Codec.decompress(badLength, 300));
+    }
+}
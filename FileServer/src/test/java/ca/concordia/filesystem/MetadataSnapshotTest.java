@@ -0,0 +1,137 @@
+package ca.concordia.filesystem;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// The incrementally published snapshot must always equal one rebuilt from the live tables
+class MetadataSnapshotTest {
+
+    private static final String[] PATHS = {"a", "b", "d", "d/x", "d/y", "e", "e/z"};
+
+    @TempDir
+    Path directory;
+
+    private PrintStream stdout;
+
+    @BeforeEach
+    void silence() {
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @AfterEach
+    void restore() {
+        System.setOut(stdout);
+    }
+
+    // Everything a reader can observe through the snapshot
+    private static String dump(MetadataSnapshot snap) {
+        StringBuilder out = new StringBuilder();
+        for (int slot = 0; slot < snap.slotCount(); slot++) {
+            out.append(snap.name(slot)).append(',').append(snap.size(slot)).append(',')
+                    .append(snap.firstBlock(slot)).append(',').append(snap.parent(slot)).append(',')
+                    .append(snap.isDirectory(slot)).append(',').append(snap.fileSize(slot)).append(',')
+                    .append(snap.isStoredCompressed(slot)).append(';');
+        }
+        for (int block = 0; block < snap.blockCount(); block++) {
+            out.append(snap.nextBlock(block)).append(snap.isBlockUsed(block) ? 'U' : 'F');
+        }
+        for (int dir = MetadataSnapshot.ROOT; dir < snap.slotCount(); dir++) {
+            if (dir == MetadataSnapshot.ROOT || (snap.name(dir) != null && snap.isDirectory(dir))) {
+                out.append('|').append(dir).append(Arrays.toString(snap.list(dir)));
+            }
+        }
+        return out.toString();
+    }
+
+    @Test
+    void incrementalSnapshotMatchesFullRebuild() throws Exception {
+        Random random = new Random(42);
+        FileSystemManager fs = new FileSystemManager(directory.resolve("snap.dat").toString(), 10 * 128, true);
+        try {
+            for (int step = 0; step < 5000; step++) {
+                String path = PATHS[random.nextInt(PATHS.length)];
+                try {
+                    switch (random.nextInt(6)) {
+                        case 0:
+                            fs.createFile(path, random.nextBoolean());
+                            break;
+                        case 1:
+                            fs.makeDirectory(path);
+                            break;
+                        case 2:
+                            byte[] contents = new byte[random.nextInt(400)];
+                            if (random.nextBoolean()) {
+                                Arrays.fill(contents, (byte) 5);
+                            } else {
+                                random.nextBytes(contents);
+                            }
+                            fs.writeFile(path, contents);
+                            break;
+                        case 3:
+                            fs.deleteFile(path);
+                            break;
+                        case 4:
+                            fs.removeDirectory(path);
+                            break;
+                        default:
+                            for (int slot = 0; slot < fs.fileSlots(); slot++) {
+                                fs.compactFile(slot);
+                            }
+                            break;
+                    }
+                } catch (Exception expected) {
+                    // Missing parents, full disk, ...: the tables must still agree
+                }
+                assertEquals(dump(fs.rebuiltSnapshot()), dump(fs.currentSnapshot()), "after step " + step);
+            }
+            assertTrue(fs.checkConsistency(false).isClean());
+        } finally {
+            fs.close();
+        }
+    }
+
+    // Last child of a directory removed and another added in the same publish
+    @Test
+    void directoryEmptiedAndRefilledInOnePublish() {
+        String[] names = {"d", "x", null};
+        short[] sizes = new short[3];
+        short[] firstBlocks = {-1, -1, -1};
+        byte[] flags = {(byte) FileSystemManager.FLAG_DIRECTORY, 0, 0};
+        int[] parents = {MetadataSnapshot.ROOT, 0, MetadataSnapshot.ROOT};
+        long[] modified = new long[3];
+        int[] nextBlock = new int[4];
+        boolean[] usedBlocks = new boolean[4];
+        MetadataSnapshot before = MetadataSnapshot.of(names, sizes, firstBlocks, sizes, flags, parents, modified,
+                nextBlock, usedBlocks);
+        assertArrayEquals(new String[] {"x"}, before.list(0));
+
+        names[1] = null;
+        parents[1] = MetadataSnapshot.ROOT;
+        names[2] = "y";
+        parents[2] = 0;
+        BitSet dirty = new BitSet();
+        dirty.set(1, 3);
+        MetadataSnapshot after = MetadataSnapshot.of(before, dirty, new BitSet(), names, sizes, firstBlocks, sizes,
+                flags, parents, modified, nextBlock, usedBlocks);
+
+        assertArrayEquals(new String[] {"y"}, after.list(0));
+        assertEquals(2, after.resolve(new String[] {"d", "y"}));
+        assertEquals(MetadataSnapshot.MISSING, after.resolve(new String[] {"d", "x"}));
+        // The older snapshot still sees its own version
+        assertArrayEquals(new String[] {"x"}, before.list(0));
+    }
+}
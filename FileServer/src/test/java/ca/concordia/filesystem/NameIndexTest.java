@@ -0,0 +1,62 @@
+package ca.concordia.filesystem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+class NameIndexTest {
+
+    private static List<String> names(Iterator<NameIndex.Node> nodes) {
+        List<String> names = new ArrayList<>();
+        while (nodes.hasNext()) {
+            names.add(nodes.next().name);
+        }
+        return names;
+    }
+
+    // Same answers as a TreeMap, and every older version stays unchanged
+    @Test
+    void matchesTreeMap() {
+        Random random = new Random(3);
+        NameIndex index = NameIndex.EMPTY;
+        TreeMap<String, Integer> expected = new TreeMap<>();
+        List<NameIndex> versions = new ArrayList<>();
+        List<TreeMap<String, Integer>> expectedVersions = new ArrayList<>();
+
+        for (int step = 0; step < 20000; step++) {
+            String name = "f" + random.nextInt(300);
+            int slot = random.nextInt(4);
+            if (random.nextInt(3) == 0) {
+                index = index.remove(name, slot);
+                expected.remove(name, slot);
+            } else {
+                index = index.putIfAbsent(name, slot);
+                expected.putIfAbsent(name, slot);
+            }
+            if (step % 1000 == 0) {
+                versions.add(index);
+                expectedVersions.add(new TreeMap<>(expected));
+            }
+        }
+
+        for (int v = 0; v < versions.size(); v++) {
+            NameIndex version = versions.get(v);
+            NavigableMap<String, Integer> map = expectedVersions.get(v);
+            assertEquals(new ArrayList<>(map.keySet()), names(version.from(null, true)));
+            for (Map.Entry<String, Integer> entry : map.entrySet()) {
+                assertEquals(entry.getValue(), version.get(entry.getKey()));
+            }
+            assertEquals(NameIndex.NONE, version.get("missing"));
+            assertEquals(new ArrayList<>(map.tailMap("f150", true).keySet()), names(version.from("f150", true)));
+            assertEquals(new ArrayList<>(map.tailMap("f150", false).keySet()), names(version.from("f150", false)));
+        }
+    }
+}
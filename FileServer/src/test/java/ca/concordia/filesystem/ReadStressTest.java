@@ -0,0 +1,90 @@
+package ca.concordia.filesystem;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Lock-free readers racing a writer must only ever see one of the committed versions
+class ReadStressTest {
+
+    private static final int READERS = 4;
+    private static final long DURATION_MILLIS = 2000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void compressedReadsAreNeverTorn() throws Exception {
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        FileSystemManager fs = new FileSystemManager(directory.resolve("stress.dat").toString(), 10 * 128);
+        try {
+            // Two compressible versions whose LZ4 forms differ
+            byte[] first = new byte[600];
+            byte[] second = new byte[600];
+            for (int i = 0; i < first.length; i++) {
+                first[i] = (byte) "abcdefgh".charAt(i % 8);
+                second[i] = (byte) ("zyxw".charAt(i % 4) + i / 97);
+            }
+            fs.createFile("c", true);
+            fs.writeFile("c", first);
+
+            AtomicBoolean stop = new AtomicBoolean();
+            AtomicLong reads = new AtomicLong();
+            AtomicLong torn = new AtomicLong();
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread[] readers = new Thread[READERS];
+            for (int t = 0; t < READERS; t++) {
+                readers[t] = new Thread(() -> {
+                    while (!stop.get()) {
+                        try {
+                            byte[] read = fs.readFile("c");
+                            if (!Arrays.equals(read, first) && !Arrays.equals(read, second)) {
+                                torn.incrementAndGet();
+                            }
+                            reads.incrementAndGet();
+                        } catch (Exception e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                });
+                readers[t].start();
+            }
+            Thread writer = new Thread(() -> {
+                for (int i = 0; !stop.get(); i++) {
+                    try {
+                        fs.writeFile("c", (i % 2 == 0) ? second : first);
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            writer.start();
+
+            Thread.sleep(DURATION_MILLIS);
+            stop.set(true);
+            writer.join();
+            for (Thread reader : readers) {
+                reader.join();
+            }
+
+            assertEquals(null, failure.get());
+            assertEquals(0, torn.get());
+            assertTrue(reads.get() > 0);
+            assertTrue(fs.checkConsistency(false).isClean());
+        } finally {
+            fs.close();
+            System.setOut(stdout);
+        }
+    }
+}